@@ -0,0 +1,40 @@
+package com.tzavellas.poolng;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the {@link BorrowReturnBenchmark} once for every thread count from
+ * one up to a maximum, doubling the thread count each time.
+ * 
+ * <p>Usage: {@code java -cp target/benchmarks.jar com.tzavellas.poolng.BenchmarkRunner
+ * [maxThreads] [JMH options]}, the default maximum is twice the number of the
+ * available processors.
+ * 
+ * @author spiros
+ */
+public class BenchmarkRunner {
+	
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+		String[] jmhArgs = args;
+		if (args.length > 0 && args[0].matches("\\d+")) {
+			maxThreads = Integer.parseInt(args[0]);
+			jmhArgs = new String[args.length - 1];
+			System.arraycopy(args, 1, jmhArgs, 0, jmhArgs.length);
+		}
+		CommandLineOptions cli = new CommandLineOptions(jmhArgs);
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			Options options = new OptionsBuilder()
+				.parent(cli)
+				.include(BorrowReturnBenchmark.class.getSimpleName())
+				.threads(threads)
+				.build();
+			new Runner(options).run();
+		}
+	}
+}
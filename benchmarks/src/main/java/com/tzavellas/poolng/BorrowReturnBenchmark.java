@@ -0,0 +1,77 @@
+package com.tzavellas.poolng;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link ConnectionPool#borrowConnection()} followed by
+ * {@code PooledConnection.close()} using connections that do nothing.
+ * 
+ * <p>Reports the throughput and the latency distribution (the sample mode
+ * prints the p50, p99 and p99.9 percentiles). Run it with a thread count
+ * ({@code -t}) bigger than the {@code poolSize} parameter to measure the
+ * pool when it is exhausted, or use {@link BenchmarkRunner} to run it for
+ * a range of thread counts.
+ * 
+ * @author spiros
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BorrowReturnBenchmark {
+	
+	@State(Scope.Benchmark)
+	public static class Pool {
+		
+		@Param({ "4", "16", "64" })
+		int poolSize;
+		
+		@Param({ "true", "false" })
+		boolean validateOnBorrow;
+		
+		@Param({ "false", "true" })
+		boolean validateOnReturn;
+		
+		ConnectionPool pool;
+		
+		@Setup(Level.Trial)
+		public void createPool() {
+			pool = new ConnectionPool(new StubConnectionFactory(), config(), "benchmark");
+		}
+		
+		PoolConfig config() {
+			PoolConfig config = new PoolConfig(poolSize);
+			config.setValidateOnBorrow(validateOnBorrow);
+			config.setValidateOnReturn(validateOnReturn);
+			return config;
+		}
+		
+		@TearDown(Level.Trial)
+		public void shutdownPool() {
+			pool.shutdown();
+		}
+	}
+	
+	@Benchmark
+	public void borrowAndReturn(Pool state) throws SQLException {
+		Connection c = state.pool.borrowConnection();
+		c.close();
+	}
+}
@@ -0,0 +1,105 @@
+package com.tzavellas.poolng;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link ResizeablePermits}.
+ * 
+ * <p>The acquire/release benchmarks measure the cost of the borrow/return
+ * hot path, with a {@code java.util.concurrent.Semaphore} as the baseline,
+ * run them with various thread counts ({@code -t}). The resize benchmark
+ * measures how long a shrink of an exhausted pool takes for the caller of
+ * {@code ConnectionPool.reconfigure()}.
+ * 
+ * @author spiros
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PermitsBenchmark {
+	
+	@State(Scope.Benchmark)
+	public static class Permits {
+		
+		@Param({ "8", "64" })
+		int size;
+		
+		@Param({ "false", "true" })
+		boolean fair;
+		
+		ResizeablePermits permits;
+		Semaphore semaphore;
+		
+		@Setup(Level.Trial)
+		public void create() {
+			permits = new ResizeablePermits(size, fair);
+			semaphore = new Semaphore(size, fair);
+		}
+	}
+	
+	@State(Scope.Thread)
+	public static class ExhaustedPermits {
+		
+		@Param({ "8", "64" })
+		int size;
+		
+		ResizeablePermits permits;
+		
+		@Setup(Level.Invocation)
+		public void exhaust() throws InterruptedException {
+			permits = new ResizeablePermits(size);
+			for (int i = 0; i < size; i++) {
+				permits.acquire();
+			}
+		}
+	}
+	
+	// -----------------------------------------------------------------------
+	
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public boolean acquireReleasePermits(Permits state) throws InterruptedException {
+		ResizeablePermits p = state.permits;
+		boolean acquired = p.tryAcquire(1, TimeUnit.SECONDS);
+		if (acquired) {
+			p.release();
+		}
+		return acquired;
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public boolean acquireReleaseSemaphore(Permits state) throws InterruptedException {
+		Semaphore s = state.semaphore;
+		boolean acquired = s.tryAcquire(1, TimeUnit.SECONDS);
+		if (acquired) {
+			s.release();
+		}
+		return acquired;
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Measurement(iterations = 5, batchSize = 1)
+	@Warmup(iterations = 1, batchSize = 1)
+	public int shrinkExhaustedPermits(ExhaustedPermits state) {
+		return state.permits.resize(state.size / 2);
+	}
+}
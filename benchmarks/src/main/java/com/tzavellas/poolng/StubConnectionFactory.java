@@ -0,0 +1,114 @@
+package com.tzavellas.poolng;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link ConnectionFactory} that creates connections that do nothing, so
+ * that a benchmark measures only the overhead of the pool.
+ * 
+ * @author spiros
+ */
+public class StubConnectionFactory implements ConnectionFactory {
+	
+	private final AtomicInteger created = new AtomicInteger();
+	
+	public Connection create() throws SQLException {
+		created.incrementAndGet();
+		return new NoOpConnection();
+	}
+	
+	/**
+	 * The number of connections created by this factory.
+	 */
+	public int created() {
+		return created.get();
+	}
+	
+	// -----------------------------------------------------------------------
+	
+	static class NoOpConnection implements Connection {
+		
+		private volatile boolean autoCommit = true;
+		private volatile boolean readOnly = false;
+		private volatile int isolation = TRANSACTION_READ_COMMITTED;
+		private volatile String catalog;
+		private volatile boolean closed;
+		
+		public void close() { closed = true; }
+		public boolean isClosed() { return closed; }
+		public boolean isValid(int timeout) { return !closed; }
+		
+		public void setAutoCommit(boolean autoCommit) { this.autoCommit = autoCommit; }
+		public boolean getAutoCommit() { return autoCommit; }
+		public void setReadOnly(boolean readOnly) { this.readOnly = readOnly; }
+		public boolean isReadOnly() { return readOnly; }
+		public void setTransactionIsolation(int level) { isolation = level; }
+		public int getTransactionIsolation() { return isolation; }
+		public void setCatalog(String catalog) { this.catalog = catalog; }
+		public String getCatalog() { return catalog; }
+		
+		public void commit() { }
+		public void rollback() { }
+		public void rollback(Savepoint savepoint) { }
+		public Savepoint setSavepoint() { return null; }
+		public Savepoint setSavepoint(String name) { return null; }
+		public void releaseSavepoint(Savepoint savepoint) { }
+		public SQLWarning getWarnings() { return null; }
+		public void clearWarnings() { }
+		
+		public Statement createStatement() { return null; }
+		public Statement createStatement(int type, int concurrency) { return null; }
+		public Statement createStatement(int type, int concurrency, int holdability) { return null; }
+		public PreparedStatement prepareStatement(String sql) { return null; }
+		public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) { return null; }
+		public PreparedStatement prepareStatement(String sql, int[] columnIndexes) { return null; }
+		public PreparedStatement prepareStatement(String sql, String[] columnNames) { return null; }
+		public PreparedStatement prepareStatement(String sql, int type, int concurrency) { return null; }
+		public PreparedStatement prepareStatement(String sql, int type, int concurrency, int holdability) { return null; }
+		public CallableStatement prepareCall(String sql) { return null; }
+		public CallableStatement prepareCall(String sql, int type, int concurrency) { return null; }
+		public CallableStatement prepareCall(String sql, int type, int concurrency, int holdability) { return null; }
+		public String nativeSQL(String sql) { return sql; }
+		
+		public DatabaseMetaData getMetaData() { return null; }
+		public Map<String, Class<?>> getTypeMap() { return null; }
+		public void setTypeMap(Map<String, Class<?>> map) { }
+		public void setHoldability(int holdability) { }
+		public int getHoldability() { return 0; }
+		public Clob createClob() { return null; }
+		public Blob createBlob() { return null; }
+		public NClob createNClob() { return null; }
+		public SQLXML createSQLXML() { return null; }
+		public Array createArrayOf(String typeName, Object[] elements) { return null; }
+		public Struct createStruct(String typeName, Object[] attributes) { return null; }
+		public void setClientInfo(String name, String value) throws SQLClientInfoException { }
+		public void setClientInfo(Properties properties) throws SQLClientInfoException { }
+		public String getClientInfo(String name) { return null; }
+		public Properties getClientInfo() { return null; }
+		public void setSchema(String schema) { }
+		public String getSchema() { return null; }
+		public void abort(Executor executor) { closed = true; }
+		public void setNetworkTimeout(Executor executor, int milliseconds) { }
+		public int getNetworkTimeout() { return 0; }
+		public <T> T unwrap(Class<T> iface) throws SQLException { throw new SQLException("Not a wrapper"); }
+		public boolean isWrapperFor(Class<?> iface) { return false; }
+	}
+}
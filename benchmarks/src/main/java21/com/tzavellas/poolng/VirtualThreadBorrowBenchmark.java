@@ -0,0 +1,116 @@
+package com.tzavellas.poolng;
+
+import java.sql.Connection;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jdk.jfr.consumer.RecordingStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time for 10k virtual threads to borrow and return a
+ * connection from a much smaller pool, so that most of them block in
+ * the borrow path.
+ *
+ * <p>The {@code jdk.VirtualThreadPinned} JFR events are counted during the
+ * trial and printed at its end. A virtual thread that blocks while holding
+ * a monitor pins its carrier thread, with only j.u.c locks and parking in
+ * the pool the count must be zero. The scheduler parallelism is kept low
+ * so that pinning, when it happens, also shows in the measured time.
+ *
+ * <p>Built only on Java 21+, see the {@code java21} profile.
+ *
+ * @author spiros
+ */
+@Fork(value = 1, jvmArgsAppend = "-Djdk.virtualThreadScheduler.parallelism=4")
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class VirtualThreadBorrowBenchmark {
+
+	static final int BORROWERS = 10_000;
+
+	@State(Scope.Benchmark)
+	public static class Pool {
+
+		@Param({ "16", "64" })
+		int poolSize;
+
+		@Param({ "false", "true" })
+		boolean fairQueue;
+
+		// the time a borrower holds the connection, simulates a query
+		@Param({ "0", "1" })
+		long holdMillis;
+
+		ConnectionPool pool;
+		RecordingStream pinning;
+		final AtomicLong pinnedEvents = new AtomicLong();
+
+		@Setup(Level.Trial)
+		public void createPool() {
+			PoolConfig config = new PoolConfig(poolSize);
+			config.setFairQueue(fairQueue);
+			pool = new ConnectionPool(new StubConnectionFactory(), config, "benchmark");
+
+			pinning = new RecordingStream();
+			pinning.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO);
+			pinning.onEvent("jdk.VirtualThreadPinned", e -> pinnedEvents.incrementAndGet());
+			pinning.startAsync();
+		}
+
+		@TearDown(Level.Trial)
+		public void shutdownPool() {
+			// stop() flushes the pending events to the handler
+			pinning.stop();
+			pinning.close();
+			pool.shutdown();
+			System.out.println();
+			System.out.println("Virtual thread pinned events: " + pinnedEvents.get());
+		}
+	}
+
+	@Benchmark
+	public void borrowFromVirtualThreads(Pool state) throws Exception {
+		List<Future<?>> borrows = new ArrayList<>(BORROWERS);
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < BORROWERS; i++) {
+				borrows.add(executor.submit(() -> {
+					Connection c = state.pool.borrowConnection();
+					try {
+						if (state.holdMillis > 0) {
+							Thread.sleep(state.holdMillis);
+						}
+					} finally {
+						c.close();
+					}
+					return null;
+				}));
+			}
+		}
+		// surface the failed borrows
+		for (Future<?> f : borrows) {
+			f.get();
+		}
+	}
+}
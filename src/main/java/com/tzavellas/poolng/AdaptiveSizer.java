@@ -0,0 +1,97 @@
+package com.tzavellas.poolng;
+
+/**
+ * Computes the size of the pool from its measured load.
+ *
+ * <p>The size is computed at every sizing interval from the changes of the
+ * {@link PoolMetrics} since the previous interval:
+ *
+ * <ul>
+ *   <li>The connections needed to serve the load are found using Little's
+ *   law, as the total time the connections were held divided by the length
+ *   of the interval (and never less than the connections currently borrowed).
+ *   A headroom of {@value #HEADROOM_PERCENT}% is added.
+ *   <li>The borrowers that arrive while a new connection gets created (the
+ *   borrow rate times the mean creation time) are also added, so that the
+ *   pool grows before the borrowers start waiting.
+ *   <li>If the mean borrow wait time exceeds the target, any borrower timed-out
+ *   or threads are currently waiting, the pool grows by at least the number
+ *   of waiting threads.
+ * </ul>
+ *
+ * <p>To avoid oscillation the pool grows immediately but shrinks only after
+ * the computed size stays below the current size for
+ * {@value #SHRINK_INTERVALS} consecutive intervals, and then only by half
+ * of the difference.
+ *
+ * <p>This class is <b>not</b> thread-safe, it is used by the housekeeping
+ * thread of the pool.
+ *
+ * @author spiros
+ */
+class AdaptiveSizer {
+
+	static final int HEADROOM_PERCENT = 20;
+	static final int SHRINK_INTERVALS = 3;
+
+	private final PoolMetrics metrics;
+
+	private long lastTime;
+	private long lastBorrows;
+	private long lastHoldSum;
+	private long lastWaitSum;
+	private long lastTimeouts;
+	private int intervalsBelow;
+
+	AdaptiveSizer(PoolMetrics metrics, long now) {
+		this.metrics = metrics;
+		lastTime = now;
+		lastBorrows = metrics.getBorrows();
+		lastHoldSum = metrics.getHoldTime().getSum();
+		lastWaitSum = metrics.getBorrowWaitTime().getSum();
+		lastTimeouts = metrics.getTimeouts();
+	}
+
+	/**
+	 * Compute the new size of the pool.
+	 *
+	 * @param config the configuration of the pool
+	 * @param size the current size of the pool
+	 * @param waiting the number of threads waiting for a connection
+	 * @param now the current {@code System.nanoTime()}
+	 * @return the new size, between the minimum and the maximum pool size
+	 */
+	int nextSize(PoolConfig config, int size, int waiting, long now) {
+		long elapsed = Math.max(1, now - lastTime);
+		long borrows = metrics.getBorrows() - lastBorrows;
+		long holdSum = metrics.getHoldTime().getSum() - lastHoldSum;
+		long waitSum = metrics.getBorrowWaitTime().getSum() - lastWaitSum;
+		long timeouts = metrics.getTimeouts() - lastTimeouts;
+		lastTime = now;
+		lastBorrows += borrows;
+		lastHoldSum += holdSum;
+		lastWaitSum += waitSum;
+		lastTimeouts += timeouts;
+
+		double busy = Math.max((double) holdSum / elapsed, metrics.getActiveConnections());
+		double arrivingWhileCreating = (double) borrows / elapsed * metrics.getCreationTime().getMean();
+		int target = (int) Math.ceil(busy * (100 + HEADROOM_PERCENT) / 100 + arrivingWhileCreating);
+
+		boolean underPressure = waiting > 0 || timeouts > 0 ||
+			(borrows > 0 && waitSum / borrows > config.getTargetBorrowWaitTime().toNanos());
+		if (underPressure) {
+			target = Math.max(target, size + Math.max(1, waiting));
+		}
+		target = Math.max(config.getMinPoolSize(), Math.min(config.getMaxPoolSize(), target));
+
+		if (target >= size) {
+			intervalsBelow = 0;
+			return target;
+		}
+		if (++intervalsBelow < SHRINK_INTERVALS) {
+			return size;
+		}
+		intervalsBelow = 0;
+		return size - Math.max(1, (size - target) / 2);
+	}
+}
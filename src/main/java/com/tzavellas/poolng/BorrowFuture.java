@@ -0,0 +1,215 @@
+package com.tzavellas.poolng;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The result of an asynchronous borrow (see {@link ConnectionPool#borrowConnectionAsync()}).
+ *
+ * <p>Instead of blocking in {@code get()}, event-driven code can register a
+ * listener using {@link #addListener(Runnable, Executor)} that runs when the
+ * borrow completes, fails or gets cancelled. A borrow can be cancelled only
+ * while it waits for a permit. If the borrower is not interested in the
+ * connection anymore after that, it must close it.
+ *
+ * <p>This class is <b>thread-safe</b>.
+ *
+ * @author spiros
+ */
+public class BorrowFuture implements Future<Connection> {
+
+	private static final int WAITING = 0;
+	private static final int LEASING = 1;
+	private static final int DONE = 2;
+	private static final int FAILED = 3;
+	private static final int CANCELLED = 4;
+
+	private final AtomicInteger state = new AtomicInteger(WAITING);
+	private final CountDownLatch completion = new CountDownLatch(1);
+	private final List<Runnable> listeners = new ArrayList<Runnable>();
+	private volatile Connection connection;
+	private volatile SQLException failure;
+	private volatile ResizeablePermits permits;
+	private volatile Object permitRequest;
+	private volatile Future<?> timeoutTask;
+
+	BorrowFuture() { }
+
+	/**
+	 * Register a listener to get executed, using the specified executor, when
+	 * this future completes. If the future is already complete the listener
+	 * gets executed immediately.
+	 */
+	public void addListener(final Runnable listener, final Executor executor) {
+		Runnable task = new Runnable() {
+			public void run() {
+				executor.execute(listener);
+			}
+		};
+		synchronized (listeners) {
+			if (!isDone()) {
+				listeners.add(task);
+				return;
+			}
+		}
+		task.run();
+	}
+
+	/**
+	 * Cancel the borrow, only if it still waits for a permit.
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if (!state.compareAndSet(WAITING, CANCELLED)) {
+			return false;
+		}
+		cancelPermitRequest();
+		finish();
+		return true;
+	}
+
+	public boolean isCancelled() {
+		return state.get() == CANCELLED;
+	}
+
+	public boolean isDone() {
+		return state.get() >= DONE;
+	}
+
+	public Connection get() throws InterruptedException, ExecutionException {
+		completion.await();
+		return result();
+	}
+
+	public Connection get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!completion.await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+		return result();
+	}
+
+	private Connection result() throws ExecutionException {
+		switch (state.get()) {
+		case DONE:
+			return connection;
+		case CANCELLED:
+			throw new CancellationException();
+		default:
+			throw new ExecutionException(failure);
+		}
+	}
+
+	// -----------------------------------------------------------------------
+
+	/**
+	 * Keep the request for a permit, so that it gets cancelled if the borrow
+	 * is cancelled or expires.
+	 */
+	void setPermitRequest(ResizeablePermits permits, Object request) {
+		this.permits = permits;
+		this.permitRequest = request;
+		int s = state.get();
+		if (s == CANCELLED || s == FAILED) {
+			cancelPermitRequest();
+		}
+	}
+
+	void setTimeoutTask(Future<?> task) {
+		timeoutTask = task;
+		if (isDone()) {
+			task.cancel(false);
+		}
+	}
+
+	/**
+	 * Called when a permit got acquired.
+	 *
+	 * @return {@code false} if the borrow has been cancelled or has expired
+	 *         and the permit must be released.
+	 */
+	boolean startLease() {
+		return state.compareAndSet(WAITING, LEASING);
+	}
+
+	/**
+	 * Fail the borrow because it waited for a permit for too long. The
+	 * timeout gets counted before the borrower is notified.
+	 *
+	 * @return {@code false} if the borrow is not waiting for a permit
+	 */
+	boolean expire(SQLException e, AtomicLong timeouts) {
+		if (!state.compareAndSet(WAITING, FAILED)) {
+			return false;
+		}
+		timeouts.incrementAndGet();
+		failWaiting(e);
+		return true;
+	}
+
+	/**
+	 * Fail the borrow while it waits for a permit, for example because the
+	 * pool has been shut down.
+	 *
+	 * @return {@code false} if the borrow is not waiting for a permit
+	 */
+	boolean abort(SQLException e) {
+		if (!state.compareAndSet(WAITING, FAILED)) {
+			return false;
+		}
+		failWaiting(e);
+		return true;
+	}
+
+	private void failWaiting(SQLException e) {
+		failure = e;
+		cancelPermitRequest();
+		finish();
+	}
+
+	void complete(Connection c) {
+		if (state.compareAndSet(LEASING, DONE)) {
+			connection = c;
+			finish();
+		}
+	}
+
+	void fail(SQLException e) {
+		if (state.compareAndSet(LEASING, FAILED)) {
+			failure = e;
+			finish();
+		}
+	}
+
+	private void cancelPermitRequest() {
+		ResizeablePermits p = permits;
+		if (p != null) {
+			p.cancelAsync(permitRequest);
+		}
+	}
+
+	private void finish() {
+		completion.countDown();
+		Future<?> task = timeoutTask;
+		if (task != null) {
+			task.cancel(false);
+		}
+		List<Runnable> toRun;
+		synchronized (listeners) {
+			toRun = new ArrayList<Runnable>(listeners);
+			listeners.clear();
+		}
+		for (Runnable r : toRun) {
+			r.run();
+		}
+	}
+}
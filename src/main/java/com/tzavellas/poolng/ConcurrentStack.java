@@ -0,0 +1,379 @@
+package com.tzavellas.poolng;
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A lock-free last-in-first-out {@code Queue} (a Treiber stack).
+ *
+ * <p>{@code offer} pushes an element on the top of the stack and {@code poll}
+ * pops the top element. An element can also be removed from the middle of
+ * the stack (using {@code remove} or the iterators); it is first marked as
+ * removed by clearing its node and then the node gets unlinked. A node that
+ * cannot be unlinked at that time, because of a concurrent change next to
+ * it, gets unlinked when a pop or a traversal goes over it.
+ *
+ * <p>The bottom of the stack, the element pushed before all the others, can be
+ * accessed in constant amortized time using {@code peekLast},
+ * {@code removeLastOccurrence} and {@code descendingIterator}. Every node also
+ * links to the node pushed on top of it and the stack keeps a hint to its
+ * bottom node, the hint gets moved past the removed nodes and is found again
+ * from the top only when the stack gets emptied below it.
+ *
+ * <p>The iterators are <i>weakly consistent</i> (like the iterators of the
+ * {@code java.util.concurrent} collections) and {@code size()} traverses the
+ * stack.
+ *
+ * <p>This class is <b>thread-safe</b>.
+ *
+ * @author spiros
+ */
+class ConcurrentStack<E> extends AbstractQueue<E> {
+
+	private final AtomicReference<Node<E>> top = new AtomicReference<Node<E>>();
+	
+	// a node at or below the bottom-most element, null if not known
+	private volatile Node<E> bottom;
+
+	/**
+	 * Push the specified element on the top of the stack.
+	 */
+	public boolean offer(E e) {
+		if (e == null) {
+			throw new NullPointerException();
+		}
+		Node<E> n = new Node<E>(e);
+		for (;;) {
+			Node<E> t = top.get();
+			n.next = t;
+			if (top.compareAndSet(t, n)) {
+				if (t == null) {
+					bottom = n;
+				} else {
+					t.prev = n;
+				}
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Pop the element at the top of the stack.
+	 */
+	public E poll() {
+		for (;;) {
+			Node<E> t = top.get();
+			if (t == null) {
+				return null;
+			}
+			if (top.compareAndSet(t, t.next)) {
+				E e = t.get();
+				if (e != null && t.compareAndSet(e, null)) {
+					return e;
+				}
+				// the node was removed from the middle of the stack, pop the next one
+			}
+		}
+	}
+
+	public E peek() {
+		for (Node<E> n = top.get(); n != null; n = n.next) {
+			E e = n.get();
+			if (e != null) {
+				return e;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Remove the specified element from the stack.
+	 *
+	 * @return {@code true} if the element was removed by this call, {@code false}
+	 *         if it was not in the stack or it was popped or removed concurrently.
+	 */
+	@Override
+	public boolean remove(Object o) {
+		if (o == null) {
+			return false;
+		}
+		for (Node<E> n = top.get(); n != null; n = n.next) {
+			E e = n.get();
+			if (e != null && o.equals(e) && n.compareAndSet(e, null)) {
+				unlink(n);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the element at the bottom of the stack, the one that was pushed
+	 * before all the others.
+	 */
+	public E peekLast() {
+		for (Node<E> n = firstFromBottom(); n != null; n = n.prev) {
+			E e = n.get();
+			if (e != null) {
+				return e;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Remove the specified element searching from the bottom of the stack.
+	 *
+	 * @return {@code true} if the element was removed by this call, {@code false}
+	 *         if it was not in the stack or it was popped or removed concurrently.
+	 */
+	public boolean removeLastOccurrence(Object o) {
+		if (o == null) {
+			return false;
+		}
+		for (Node<E> n = firstFromBottom(); n != null; n = n.prev) {
+			E e = n.get();
+			if (e != null && o.equals(e) && n.compareAndSet(e, null)) {
+				unlink(n);
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * An iterator over the elements of the stack from the bottom to the top,
+	 * its {@code remove} clears the node like {@code remove(Object)}.
+	 */
+	public Iterator<E> descendingIterator() {
+		return new DescendingItr();
+	}
+	
+	/**
+	 * Find the bottom-most node that has an element, moving the bottom hint
+	 * past the removed nodes.
+	 * 
+	 * @return the node or {@code null} if the stack is empty
+	 */
+	private Node<E> firstFromBottom() {
+		Node<E> n = bottom;
+		boolean searched = false;
+		if (n == null) {
+			n = findBottom();
+			searched = true;
+		}
+		while (n != null) {
+			if (n.get() != null) {
+				bottom = n;
+				return n;
+			}
+			Node<E> above = n.prev;
+			if (above != null) {
+				unlink(n);
+				n = above;
+			} else if (n == top.get() || searched) {
+				// an empty stack or a push that has not linked its node yet
+				return null;
+			} else {
+				// the stack got emptied below the hint
+				n = findBottom();
+				searched = true;
+			}
+		}
+		return null;
+	}
+	
+	private Node<E> findBottom() {
+		Node<E> n = top.get();
+		if (n == null) {
+			return null;
+		}
+		while (n.next != null) {
+			n = n.next;
+		}
+		return n;
+	}
+	
+	/**
+	 * Unlink a removed node. When the node is at the top it gets popped, else
+	 * it gets unlinked only if the node above it still links to it.
+	 */
+	private void unlink(Node<E> n) {
+		Node<E> below = n.next;
+		if (top.compareAndSet(n, below)) {
+			return;
+		}
+		Node<E> above = n.prev;
+		if (above != null && above.next == n) {
+			above.next = below; // an interior node, only traversals change its next
+			if (below != null && below.prev == n) {
+				below.prev = above;
+			}
+		}
+	}
+	
+	/**
+	 * The number of nodes linked from the top of the stack, including the
+	 * removed nodes that have not been unlinked yet.
+	 */
+	int linkedNodes() {
+		int count = 0;
+		for (Node<E> n = top.get(); n != null; n = n.next) {
+			count++;
+		}
+		return count;
+	}
+	
+	@Override
+	public boolean isEmpty() {
+		return peek() == null;
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (Node<E> n = top.get(); n != null; n = n.next) {
+			if (n.get() != null) {
+				size++;
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return new Itr();
+	}
+
+	// -----------------------------------------------------------------------
+
+	/**
+	 * A node of the stack, the element is kept in the inherited reference
+	 * and becomes {@code null} when the element gets removed. The
+	 * {@code prev} link points to the last node pushed on top of it.
+	 */
+	@SuppressWarnings("serial")
+	private static final class Node<E> extends AtomicReference<E> {
+		volatile Node<E> next;
+		volatile Node<E> prev;
+		Node(E e) {
+			super(e);
+		}
+	}
+
+	private class Itr implements Iterator<E> {
+
+		private Node<E> prev;
+		private Node<E> next;
+		private E nextElement;
+		private Node<E> last;
+
+		Itr() {
+			advance(top.get());
+		}
+
+		/**
+		 * Move to the first node, starting from the specified one, that has
+		 * an element and unlink the removed nodes that get skipped.
+		 */
+		private void advance(Node<E> from) {
+			Node<E> n = from;
+			while (n != null) {
+				E e = n.get();
+				if (e != null) {
+					next = n;
+					nextElement = e;
+					return;
+				}
+				Node<E> succ = n.next;
+				if (prev != null) {
+					prev.next = succ; // an interior node, only traversals change its next
+					if (succ != null && succ.prev == n) {
+						succ.prev = prev;
+					}
+				}
+				n = succ;
+			}
+			next = null;
+			nextElement = null;
+		}
+
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		public E next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			E e = nextElement;
+			last = next;
+			prev = next;
+			advance(next.next);
+			return e;
+		}
+
+		public void remove() {
+			if (last == null) {
+				throw new IllegalStateException();
+			}
+			E e = last.get();
+			if (e != null && last.compareAndSet(e, null)) {
+				unlink(last);
+			}
+			last = null;
+		}
+	}
+
+	private class DescendingItr implements Iterator<E> {
+
+		private Node<E> next;
+		private E nextElement;
+		private Node<E> last;
+
+		DescendingItr() {
+			advance(firstFromBottom());
+		}
+
+		private void advance(Node<E> from) {
+			for (Node<E> n = from; n != null; n = n.prev) {
+				E e = n.get();
+				if (e != null) {
+					next = n;
+					nextElement = e;
+					return;
+				}
+				unlink(n);
+			}
+			next = null;
+			nextElement = null;
+		}
+
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		public E next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			E e = nextElement;
+			last = next;
+			advance(next.prev);
+			return e;
+		}
+
+		public void remove() {
+			if (last == null) {
+				throw new IllegalStateException();
+			}
+			E e = last.get();
+			if (e != null && last.compareAndSet(e, null)) {
+				unlink(last);
+			}
+			last = null;
+		}
+	}
+}
@@ -1,13 +1,20 @@
 package com.tzavellas.poolng;
 
+import java.lang.ref.Reference;
 import java.sql.Connection;
 import java.util.Comparator;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Holds a {@code Connection} in a {@code PooledObject} and also
  * adds statistics and idle handling.
  * 
+ * <p>The holder also keeps the auto-commit, read-only, transaction isolation
+ * and catalog of the connection, as set through the JDBC API, so that the
+ * pool only re-applies the defaults that have changed. A {@code null} value
+ * means that the state is not known.
+ * 
  * <p>This class is <b>thread-safe</b>.
  * 
  * @author spiros
@@ -29,12 +36,49 @@ class ConnectionHolder implements PooledObject {
 		};
 	};
 	
+	/**
+	 * Compares {@code ConnectionHolder} objects based on the last time they
+	 * were returned to the pool, two distinct holders are never equal.
+	 */
+	static final Comparator<ConnectionHolder> RETURN_TIME_COMPARATOR = new Comparator<ConnectionHolder>() {
+		public int compare(ConnectionHolder o1, ConnectionHolder o2) {
+			if (o1.lastReturnTime != o2.lastReturnTime) {
+				return o1.lastReturnTime > o2.lastReturnTime ? 1 : -1;
+			}
+			if (o1.id != o2.id) {
+				return o1.id > o2.id ? 1 : -1;
+			}
+			return 0;
+		};
+	};
+	
+	private static final AtomicLong ids = new AtomicLong();
+	
 	// -----------------------------------------------------------------------
 	
 	private AtomicInteger timesUsed =  new AtomicInteger();
 	private volatile long lastReturnTime;
+	private volatile long lastBorrowTime;
+	private final AtomicInteger lease = new AtomicInteger();
+	private volatile int reportedLease;
+	private volatile Throwable borrowTrace;
+	private volatile Reference<?> leaseReference;
+	private volatile StatementCache statementCache;
+	private final OpenStatements openStatements = new OpenStatements();
+	private volatile long lastValidationTime;
 	private final long creationTime = System.nanoTime();
+	private final long id = ids.incrementAndGet();
+	private volatile long retirementTime;
+	private volatile boolean hasLifetime;
 	private final Connection connection;
+	
+	// the known state of the connection, null when unknown
+	private volatile Boolean autoCommit;
+	private volatile Boolean readOnly;
+	private volatile Integer isolation;
+	private volatile String catalog;
+	private volatile Boolean transactionActive = false;
+	private volatile boolean warnings;
 
 	/**
 	 * Constructs a {@code ConnectionHolder}.
@@ -44,6 +88,7 @@ class ConnectionHolder implements PooledObject {
 	ConnectionHolder(Connection c) {
 		connection = c;
 		lastReturnTime = System.nanoTime();
+		lastValidationTime = lastReturnTime;
 	}
 	
 	/**
@@ -53,10 +98,193 @@ class ConnectionHolder implements PooledObject {
 		return connection;
 	}
 	
+	Boolean getAutoCommit() {
+		return autoCommit;
+	}
+	
+	void setAutoCommit(Boolean autoCommit) {
+		this.autoCommit = autoCommit;
+	}
+	
+	Boolean getReadOnly() {
+		return readOnly;
+	}
+	
+	void setReadOnly(Boolean readOnly) {
+		this.readOnly = readOnly;
+	}
+	
+	Integer getTransactionIsolation() {
+		return isolation;
+	}
+	
+	void setTransactionIsolation(Integer isolation) {
+		this.isolation = isolation;
+	}
+	
+	String getCatalog() {
+		return catalog;
+	}
+	
+	void setCatalog(String catalog) {
+		this.catalog = catalog;
+	}
+	
+	/**
+	 * Whether a statement was executed since the last commit or rollback,
+	 * {@code null} when not known.
+	 */
+	Boolean isTransactionActive() {
+		return transactionActive;
+	}
+	
+	void setTransactionActive(Boolean active) {
+		this.transactionActive = active;
+	}
+	
+	/**
+	 * Whether the client got warnings from the connection or from one of
+	 * its statements or result sets, since the warnings were last cleared.
+	 */
+	boolean hasWarnings() {
+		return warnings;
+	}
+	
+	void setWarnings(boolean warnings) {
+		this.warnings = warnings;
+	}
+	
+	/**
+	 * Called when a transaction might have started. Has no effect when the
+	 * transaction state is not known.
+	 */
+	void transactionStarted() {
+		if (transactionActive != null) {
+			transactionActive = true;
+		}
+	}
+	
+	/**
+	 * Called on commit or rollback. Has no effect when the transaction state
+	 * is not known.
+	 */
+	void transactionEnded() {
+		if (transactionActive != null) {
+			transactionActive = false;
+		}
+	}
+	
+	/**
+	 * Forget the known state of the connection, so that all the defaults
+	 * get applied the next time the connection is borrowed.
+	 */
+	void clearState() {
+		autoCommit = null;
+		readOnly = null;
+		isolation = null;
+		catalog = null;
+	}
+	
 	/** {@inheritDoc} */
 	public void setBorrowed() {
-		timesUsed.incrementAndGet();
+		lease.set(timesUsed.incrementAndGet());
 		lastReturnTime = 0;
+		lastBorrowTime = System.nanoTime();
+		borrowTrace = null;
+	}
+	
+	/**
+	 * The id of the current borrow of the underline {@code Connection},
+	 * zero when the connection is not borrowed.
+	 */
+	int getLease() {
+		return lease.get();
+	}
+	
+	/**
+	 * End the specified lease.
+	 * 
+	 * @return {@code true} if the lease was ended by this call and
+	 *         {@code false} if it had already ended.
+	 */
+	boolean endLease(int id) {
+		if (lease.compareAndSet(id, 0)) {
+			Reference<?> ref = leaseReference;
+			if (ref != null) {
+				ref.clear();
+				leaseReference = null;
+			}
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * The cache of the prepared statements of the underline {@code Connection},
+	 * {@code null} if statement caching is disabled.
+	 */
+	StatementCache getStatementCache() {
+		return statementCache;
+	}
+	
+	void setStatementCache(StatementCache cache) {
+		this.statementCache = cache;
+	}
+	
+	/**
+	 * The statements of the underline {@code Connection} that the clients
+	 * have not closed.
+	 */
+	OpenStatements getOpenStatements() {
+		return openStatements;
+	}
+	
+	/**
+	 * Keep the reference that tracks the reachability of the
+	 * {@code PooledConnection} of the current lease. The reference gets
+	 * cleared when the lease ends.
+	 */
+	void setLeaseReference(Reference<?> ref) {
+		this.leaseReference = ref;
+	}
+	
+	/**
+	 * Mark the specified lease as reported leaked.
+	 * 
+	 * @return {@code true} if the lease had not been reported before
+	 */
+	boolean markLeakReported(int id) {
+		if (reportedLease == id) {
+			return false;
+		}
+		reportedLease = id;
+		return true;
+	}
+	
+	/**
+	 * The stack trace of the borrower, {@code null} if it was not captured.
+	 */
+	Throwable getBorrowTrace() {
+		return borrowTrace;
+	}
+	
+	void setBorrowTrace(Throwable trace) {
+		this.borrowTrace = trace;
+	}
+	
+	/**
+	 * The {@code System.nanoTime()} of the last time the underline
+	 * {@code Connection} was borrowed from the pool.
+	 */
+	long getLastBorrowTime() {
+		return lastBorrowTime;
+	}
+	
+	/**
+	 * The number of times the underline {@code Connection} was borrowed.
+	 */
+	int getTimesUsed() {
+		return timesUsed.get();
 	}
 	
 	/** {@inheritDoc} */
@@ -64,6 +292,65 @@ class ConnectionHolder implements PooledObject {
 		lastReturnTime = System.nanoTime();
 	}
 	
+	/**
+	 * Checks if the underline {@code Connection} was returned to the pool
+	 * less than the specified amount of time ago.
+	 */
+	boolean wasReturnedWithin(Duration window) {
+		long returned = lastReturnTime;
+		return returned != 0 && 
+			System.nanoTime() - returned < window.toNanos();
+	}
+	
+	/**
+	 * Called when the underline {@code Connection} passes a validation.
+	 */
+	void setValidated() {
+		lastValidationTime = System.nanoTime();
+	}
+	
+	/**
+	 * Checks if the underline {@code Connection} has not been validated or
+	 * returned to the pool for the specified amount of time.
+	 */
+	boolean needsValidation(Duration interval) {
+		long now = System.nanoTime();
+		return now - lastValidationTime >= interval.toNanos() &&
+			now - lastReturnTime >= interval.toNanos();
+	}
+	
+	/**
+	 * Limit the lifetime of the underline {@code Connection} to the specified
+	 * number of nanoseconds since its creation.
+	 */
+	void setLifetime(long nanos) {
+		retirementTime = creationTime + nanos;
+		hasLifetime = true;
+	}
+	
+	/**
+	 * Whether the lifetime of the underline {@code Connection} is limited.
+	 */
+	boolean hasLifetime() {
+		return hasLifetime;
+	}
+	
+	/**
+	 * The nanoseconds until the underline {@code Connection} reaches the end
+	 * of its lifetime, zero or negative if it has reached it.
+	 */
+	long getRemainingLifetime() {
+		return retirementTime - System.nanoTime();
+	}
+	
+	/**
+	 * Checks if the underline {@code Connection} has reached the end of its
+	 * lifetime and must be retired.
+	 */
+	boolean isExpired() {
+		return hasLifetime && getRemainingLifetime() <= 0;
+	}
+	
 	/**
 	 * Checks if the underline {@code Connection} is idle.
 	 * 
@@ -1,16 +1,37 @@
 package com.tzavellas.poolng;
 
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,12 +45,24 @@ import org.slf4j.LoggerFactory;
  */
 public class ConnectionPool {
 	
+	private static final long UNREACHABLE_CHECK_INTERVAL_MILLIS = 1000;
+	
+	// the idle connections are checked for retirement this many times per max lifetime
+	private static final long RETIREMENT_CHECKS_PER_LIFETIME = 100;
+	private static final long TIMEOUT_PURGE_INTERVAL_MILLIS = 1000;
+	
 	private final PoolImpl poolImpl;
 	private final String name;
 	
 	private volatile ScheduledExecutorService executor; 
+	private volatile ThreadPoolExecutor returnExecutor;
+	private volatile ThreadPoolExecutor asyncBorrowExecutor;
+	private volatile ScheduledThreadPoolExecutor asyncBorrowTimer;
 	private volatile Thread shuhtdownHook;
 	private volatile PoolConfig config;
+	
+	// guards the configuration and the executors, never held during I/O
+	private final ReentrantLock lock = new ReentrantLock();
 
 	public ConnectionPool(ConnectionFactory factory) {
 		this(factory, new PoolConfig());
@@ -42,7 +75,10 @@ public class ConnectionPool {
 	public ConnectionPool(ConnectionFactory factory, PoolConfig config, String name) {
 		this.name = name;
 		this.config = config.clone();
-		poolImpl = new PoolImpl(factory, config.getPoolSize()); 
+		poolImpl = new PoolImpl(factory, config.getPoolSize(), config.isFairQueue(), config.getIdleOrder());
+		if (config.isAsyncReturn()) {
+			returnExecutor = createReturnExecutor(config);
+		}
 	}
 	
 	public String getName() {
@@ -56,13 +92,21 @@ public class ConnectionPool {
 	/**
 	 * Perform after-construction initialization.
 	 * 
-	 * <p>This method schedules the idle connection eviction thread and registers
-	 * the pool's shutdown hook in the JVM. 
+	 * <p>This method schedules the idle connection eviction thread (and the
+	 * background validation, leak detection and reclaim of the unreachable
+	 * connections if enabled), starts filling
+	 * the pool with idle connections if pre-fill is enabled and registers the
+	 * pool's shutdown hook in the JVM. 
 	 */
-	public synchronized void init() {
-		if (shuhtdownHook == null) {
-			registerShutdownHook();
-			registerEvictionTask();
+	public void init() {
+		lock.lock();
+		try {
+			if (shuhtdownHook == null) {
+				registerShutdownHook();
+				registerHousekeepingTasks();
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 	
@@ -75,21 +119,78 @@ public class ConnectionPool {
 		Runtime.getRuntime().addShutdownHook(shuhtdownHook);
 	}
 	
-	private void registerEvictionTask() {
-		createEvictionExecutorIfNecessary();
-		executor.scheduleAtFixedRate(poolImpl.new IdleConnectionsCollector(this, this), 
+	private void registerHousekeepingTasks() {
+		createHousekeepingExecutorIfNecessary();
+		poolImpl.housekeeper = executor;
+		if (config.getMaxLifetime().toNanos() > 0) {
+			long period = Math.max(1, config.getMaxLifetime().toMillis() / RETIREMENT_CHECKS_PER_LIFETIME);
+			executor.scheduleWithFixedDelay(poolImpl.new ConnectionRetirer(this),
+					period, period, TimeUnit.MILLISECONDS);
+		}
+		executor.scheduleAtFixedRate(poolImpl.new IdleConnectionsCollector(this), 
 				config.getEvictionInterval().toMillis(),
 				config.getEvictionInterval().toMillis(),
 				TimeUnit.MILLISECONDS);
+		if (config.isBackgroundValidation()) {
+			executor.scheduleAtFixedRate(poolImpl.new BackgroundValidator(this),
+					config.getValidationInterval().toMillis(),
+					config.getValidationInterval().toMillis(),
+					TimeUnit.MILLISECONDS);
+		}
+		if (config.getLeakDetectionThreshold().toNanos() > 0) {
+			long period = Math.max(1, config.getLeakDetectionThreshold().toMillis() / 2);
+			executor.scheduleAtFixedRate(poolImpl.new LeakDetector(this),
+					period, period, TimeUnit.MILLISECONDS);
+		}
+		if (config.isReclaimUnreachableConnections()) {
+			executor.scheduleWithFixedDelay(poolImpl.new UnreachableConnectionsCollector(this),
+					UNREACHABLE_CHECK_INTERVAL_MILLIS,
+					UNREACHABLE_CHECK_INTERVAL_MILLIS,
+					TimeUnit.MILLISECONDS);
+		}
+		if (config.isAdaptiveSizing()) {
+			executor.scheduleAtFixedRate(poolImpl.new PoolResizer(this),
+					config.getSizingInterval().toMillis(),
+					config.getSizingInterval().toMillis(),
+					TimeUnit.MILLISECONDS);
+		}
+		if (config.isPrefill()) {
+			poolImpl.filler = poolImpl.new IdleConnectionsFiller(this, executor);
+			poolImpl.filler.request();
+		} else {
+			poolImpl.filler = null;
+		}
 	}
 	
-	private synchronized void createEvictionExecutorIfNecessary() {
-		if (executor == null || executor.isShutdown()) {
-			executor = Executors.newSingleThreadScheduledExecutor(
-									new IdleCollectorThreadFactory());
+	private void createHousekeepingExecutorIfNecessary() {
+		lock.lock();
+		try {
+			if (executor == null || executor.isShutdown()) {
+				executor = Executors.newSingleThreadScheduledExecutor(
+										new PoolThreadFactory("Pool-Housekeeper"));
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 	
+	/**
+	 * Create the executor that processes the returned connections when the
+	 * asynchronous return is enabled.
+	 * 
+	 * <p>The executor has a single thread and a bounded queue. When the queue
+	 * is full (or the executor has been shut down) the returned connection
+	 * gets processed by the thread that closed it. Since every connection in
+	 * the queue still holds its permit, the pool never hands out more
+	 * connections than its size.
+	 */
+	private static ThreadPoolExecutor createReturnExecutor(PoolConfig config) {
+		return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, config.getReturnQueueCapacity())),
+				new PoolThreadFactory("Pool-Returner"),
+				new RunOnCallerPolicy());
+	}
+	
 	/**
 	 * Perform a graceful shutdown.
 	 * 
@@ -97,11 +198,24 @@ public class ConnectionPool {
 	 * wait a configurable amount of time to acquire and close the rest of the
 	 * connections.
 	 * 
+	 * <p>No lock is held while the connections get closed, so the threads
+	 * that shutdown or reconfigure the pool concurrently do not block.
+	 * 
 	 * @see PoolConfig#getShutdownTimeout()
 	 */
 	public void shutdown() {
-		synchronized (this) {
-			poolImpl.shutdown(config);
+		poolImpl.shutdown(config);
+		lock.lock();
+		try {
+			if (returnExecutor != null) {
+				returnExecutor.shutdown();
+			}
+			if (asyncBorrowExecutor != null) {
+				asyncBorrowExecutor.shutdown();
+				asyncBorrowTimer.shutdown();
+			}
+		} finally {
+			lock.unlock();
 		}
 		try {
 			Runtime.getRuntime().removeShutdownHook(shuhtdownHook);
@@ -113,16 +227,34 @@ public class ConnectionPool {
 			return;
 		}
 		newConfig = newConfig.clone();
-		synchronized (this) {
-			if (executor != null) {
-				executor.shutdownNow();
-				registerEvictionTask();
-			}
-			if (config.getPoolSize() != newConfig.getPoolSize()) {
+		// the idle connections are kept in a queue or a stack chosen at creation
+		newConfig.setIdleOrder(config.getIdleOrder());
+		lock.lock();
+		try {
+			// when adaptive sizing gets disabled the pool goes back to the configured size
+			if (config.getPoolSize() != newConfig.getPoolSize() ||
+				(config.isAdaptiveSizing() && !newConfig.isAdaptiveSizing())) {
 				int newSize = poolImpl.resize(newConfig.getPoolSize());
 				newConfig.setPoolSize(newSize);
 			}
+			poolImpl.permits.setFair(newConfig.isFairQueue());
+			resizeAsyncBorrowExecutor(newConfig);
+			ThreadPoolExecutor oldReturnExecutor = returnExecutor;
+			if (newConfig.isAsyncReturn() != config.isAsyncReturn() ||
+				newConfig.getReturnQueueCapacity() != config.getReturnQueueCapacity()) {
+				returnExecutor = newConfig.isAsyncReturn() ? createReturnExecutor(newConfig) : null;
+			}
 			config = newConfig;	
+			if (oldReturnExecutor != null && oldReturnExecutor != returnExecutor) {
+				// the connections already in the queue still get processed
+				oldReturnExecutor.shutdown();
+			}
+			if (executor != null) {
+				executor.shutdownNow();
+				registerHousekeepingTasks();
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 	
@@ -136,8 +268,36 @@ public class ConnectionPool {
 	 * @see IdleConnectionConfig#getEvictionInterval()
 	 */
 	public void scheduleEviction(long delay, TimeUnit unit) {
-		createEvictionExecutorIfNecessary();
-		executor.schedule(poolImpl.new IdleConnectionsCollector(this, this), delay, unit);
+		createHousekeepingExecutorIfNecessary();
+		executor.schedule(poolImpl.new IdleConnectionsCollector(this), delay, unit);
+	}
+	
+	/**
+	 * Schedule a run of the leak detector.
+	 * 
+	 * <p>Usually clients do not need to call this method since the pool
+	 * schedules leak detection runs when the leak detection is enabled.
+	 * 
+	 * @see PoolConfig#getLeakDetectionThreshold()
+	 */
+	public void scheduleLeakDetection(long delay, TimeUnit unit) {
+		createHousekeepingExecutorIfNecessary();
+		executor.schedule(poolImpl.new LeakDetector(this), delay, unit);
+	}
+	
+	/**
+	 * Schedule a background validation run of the idle connections.
+	 * 
+	 * <p>Usually clients do not need to call this method since the pool
+	 * schedules validation runs at configurable time intervals when
+	 * background validation is enabled.
+	 * 
+	 * @see PoolConfig#isBackgroundValidation()
+	 * @see PoolConfig#getValidationInterval()
+	 */
+	public void scheduleValidation(long delay, TimeUnit unit) {
+		createHousekeepingExecutorIfNecessary();
+		executor.schedule(poolImpl.new BackgroundValidator(this), delay, unit);
 	}
 	
 	/**
@@ -167,75 +327,366 @@ public class ConnectionPool {
 		return poolImpl.borrowConnection(config, this, timeout, unit);
 	}
 	
+	/**
+	 * Acquire a {@link Connection} from the pool without blocking the
+	 * calling thread.
+	 * 
+	 * <p>The returned future completes when a connection becomes available,
+	 * or fails after the configured connection timeout.
+	 * 
+	 * @see PoolConfig#getConnectionTimeout()
+	 */
+	public BorrowFuture borrowConnectionAsync() {
+		return borrowConnectionAsync(config.getConnectionTimeout().toMicros(), TimeUnit.MICROSECONDS);
+	}
+	
+	/**
+	 * Acquire a {@link Connection} from the pool without blocking the
+	 * calling thread.
+	 * 
+	 * <p>The borrow waits for a connection in the same (FIFO) queue as the
+	 * threads blocked in {@link #borrowConnection()}, but no thread gets
+	 * blocked while it waits. When a connection becomes available it gets
+	 * acquired (and maybe validated or created) by a pool thread that
+	 * completes the returned future.
+	 * 
+	 * <p>A pool thread stays busy for the whole acquisition, including the
+	 * wait for a connection to get created when the concurrent creations
+	 * are limited. The pool threads are at most as many as the connections
+	 * of the pool, the acquisitions that find them all busy wait in a queue.
+	 * After the pool is shut down the returned future fails.
+	 * 
+	 * @param timeout the amount of time to wait for a connection
+	 * @param unit the time-unit if the amount
+	 */
+	public BorrowFuture borrowConnectionAsync(final long timeout, final TimeUnit unit) {
+		createAsyncBorrowExecutorsIfNecessary();
+		final BorrowFuture future = new BorrowFuture();
+		poolImpl.borrowConnectionAsync(config, this, future, asyncBorrowExecutor, unit.toNanos(timeout));
+		if (!future.isDone()) {
+			try {
+				future.setTimeoutTask(asyncBorrowTimer.schedule(new Runnable() {
+					public void run() {
+						future.expire(poolImpl.timeoutException(timeout, unit), poolImpl.metrics.timeouts);
+					}
+				}, timeout, unit));
+			} catch (RejectedExecutionException e) {
+				future.abort(new SQLException("Could not acquire a JDBC connection, the pool has been shut down."));
+			}
+		}
+		return future;
+	}
+	
+	/**
+	 * Create the executors of the asynchronous borrows. The borrower threads
+	 * are created on demand, up to the size of the pool, and time out when
+	 * idle.
+	 * 
+	 * <p>Every borrow that completes cancels its timeout task. The cancelled
+	 * tasks get purged from the timer periodically, so that they are not
+	 * retained until their delay elapses.
+	 */
+	private void createAsyncBorrowExecutorsIfNecessary() {
+		lock.lock();
+		try {
+			if (asyncBorrowExecutor == null) {
+				int threads = asyncBorrowThreads(config);
+				ThreadPoolExecutor borrower = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+						new LinkedBlockingQueue<Runnable>(),
+						new PoolThreadFactory("Pool-Borrower"));
+				borrower.allowCoreThreadTimeOut(true);
+				final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+						new PoolThreadFactory("Pool-Borrow-Timer"));
+				timer.scheduleWithFixedDelay(new Runnable() {
+					public void run() {
+						timer.purge();
+					}
+				}, TIMEOUT_PURGE_INTERVAL_MILLIS, TIMEOUT_PURGE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+				asyncBorrowExecutor = borrower;
+				asyncBorrowTimer = timer;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	private void resizeAsyncBorrowExecutor(PoolConfig newConfig) {
+		ThreadPoolExecutor borrower = asyncBorrowExecutor;
+		if (borrower == null) {
+			return;
+		}
+		int threads = asyncBorrowThreads(newConfig);
+		// the core size must never exceed the maximum size
+		if (threads > borrower.getMaximumPoolSize()) {
+			borrower.setMaximumPoolSize(threads);
+			borrower.setCorePoolSize(threads);
+		} else {
+			borrower.setCorePoolSize(threads);
+			borrower.setMaximumPoolSize(threads);
+		}
+	}
+	
+	private static int asyncBorrowThreads(PoolConfig config) {
+		int size = config.isAdaptiveSizing() ? Math.max(config.getPoolSize(), config.getMaxPoolSize()) : config.getPoolSize();
+		return Math.max(1, size);
+	}
+	
 	/**
 	 * Return a connection to the pool.
 	 * 
 	 * <p>Not to be used by client code. Only {@link PooledConnection} calls this
 	 * method.
 	 */
-	void returnConnection(ConnectionHolder holder) {
-		poolImpl.returnConnection(config, holder);
+	void returnConnection(final ConnectionHolder holder) {
+		final PoolConfig config = this.config;
+		poolImpl.metrics.holdTime.recordSince(holder.getLastBorrowTime());
+		poolImpl.metrics.connectionReturned();
+		ThreadPoolExecutor returner = returnExecutor;
+		if (config.isAsyncReturn() && returner != null) {
+			returner.execute(new Runnable() {
+				public void run() {
+					poolImpl.returnConnection(config, holder);
+				}
+			});
+		} else {
+			poolImpl.returnConnection(config, holder);
+		}
 	}	
+	
+	/**
+	 * Get the number of returned connections that wait to be processed
+	 * by the pool when the asynchronous return is enabled.
+	 * 
+	 * @see PoolConfig#isAsyncReturn()
+	 */
+	public int getReturnQueueDepth() {
+		ThreadPoolExecutor returner = returnExecutor;
+		return returner == null ? 0 : returner.getQueue().size();
+	}
+	
+	/**
+	 * Get the runtime statistics of the pool.
+	 */
+	public PoolMetrics getMetrics() {
+		return poolImpl.metrics;
+	}
+	
+	/**
+	 * Get the number of threads that wait to borrow a connection.
+	 */
+	public int getWaitingThreads() {
+		return poolImpl.getWaitingThreads();
+	}
+	
+	/**
+	 * Get the current size of the pool, it differs from the configured size
+	 * when adaptive sizing is enabled.
+	 * 
+	 * @see PoolConfig#isAdaptiveSizing()
+	 */
+	public int getPoolSize() {
+		return poolImpl.permits.size();
+	}
+	
+	/**
+	 * Get the number of connections that can be borrowed before the
+	 * pool gets exhausted.
+	 */
+	public int getAvailablePermits() {
+		return Math.max(0, poolImpl.permits.availablePermits());
+	}
+	
+	/**
+	 * Get the number of connection validations performed by the pool.
+	 */
+	public long getValidationsPerformed() {
+		return poolImpl.metrics.getValidations();
+	}
+	
+	/**
+	 * Get the number of on-borrow validations skipped because the connection
+	 * was returned to the pool within the validation bypass window.
+	 * 
+	 * @see PoolConfig#getValidationBypassWindow()
+	 */
+	public long getValidationsSkipped() {
+		return poolImpl.metrics.getValidationsSkipped();
+	}
 		
 	/**
 	 * To be used only for testing.
 	 */
 	boolean isEmpty() {
-		return poolImpl.available.isEmpty();
+		return poolImpl.isEmpty();
+	}
+	
+	/**
+	 * To be used only for testing.
+	 */
+	void collectUnreachableConnections() {
+		poolImpl.new UnreachableConnectionsCollector(this).run();
+	}
+	
+	/**
+	 * To be used only for testing.
+	 */
+	void validateIdleConnections() {
+		poolImpl.new BackgroundValidator(this).run();
+	}
+	
+	/**
+	 * To be used only for testing.
+	 */
+	void collectIdleConnections() {
+		poolImpl.new IdleConnectionsCollector(this).run();
+	}
+	
+	/**
+	 * To be used only for testing.
+	 */
+	void retireExpiredConnections() {
+		poolImpl.new ConnectionRetirer(this).run();
 	}
 	
 	
 	// -----------------------------------------------------------------------
 	
-	private static class IdleCollectorThreadFactory implements ThreadFactory {
+	private static class PoolThreadFactory implements ThreadFactory {
+		private final String name;
+		PoolThreadFactory(String name) {
+			this.name = name;
+		}
 		public Thread newThread(Runnable r) {
-			Thread t = new Thread(r, "Idle-Conncetions-Collector");
+			Thread t = new Thread(r, name);
 			t.setDaemon(true);
 			return t;
 		}
 	}
 	
+	private static class RunOnCallerPolicy implements RejectedExecutionHandler {
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+			r.run();
+		}
+	}
+	
 	// -----------------------------------------------------------------------
 	
 	private static class PoolImpl {
 		
 		private static Logger log = LoggerFactory.getLogger(ConnectionPool.class);
 		
-		private final ConcurrentLinkedQueue<ConnectionHolder> available = new ConcurrentLinkedQueue<ConnectionHolder>();
+		// the lifetime of a connection is shortened by up to 1/10 of the max lifetime
+		private static final long LIFETIME_JITTER_DIVISOR = 10;
+		
+		// the available connections, both orders keep them in the order they were returned
+		private final Queue<ConnectionHolder> available;
+		private final ConcurrentStack<ConnectionHolder> stack;
+		// the connections put back by the background validation, in the order they were returned,
+		// they sit below the oldest end of available
+		private final ConcurrentSkipListSet<ConnectionHolder> oldest =
+			new ConcurrentSkipListSet<ConnectionHolder>(ConnectionHolder.RETURN_TIME_COMPARATOR);
+		private final ThreadAffineCache cache = new ThreadAffineCache();
 		private final ConnectionProcessor proc = new ConnectionProcessor();
 		private final ConnectionFactory factory;
-		private final ResizeableSemaphore sem;
+		private final ResizeablePermits permits;
+		private final PoolMetrics metrics = new PoolMetrics();
+		private final Set<ConnectionHolder> holders = Collections.newSetFromMap(new ConcurrentHashMap<ConnectionHolder, Boolean>());
+		private final ReferenceQueue<PooledConnection> unreachable = new ReferenceQueue<PooledConnection>();
+		private final AtomicInteger creationsInFlight = new AtomicInteger();
+		private final AtomicInteger creationWaiters = new AtomicInteger();
+		private final ConcurrentLinkedQueue<HolderWaiter> holderWaiters = new ConcurrentLinkedQueue<HolderWaiter>();
+		private volatile IdleConnectionsFiller filler;
+		private volatile ScheduledExecutorService housekeeper;
+		private final Random random = new Random();
+		private final AtomicBoolean collecting = new AtomicBoolean();
 
-		PoolImpl(ConnectionFactory factory, int poolSize) {
+		PoolImpl(ConnectionFactory factory, int poolSize, boolean fair, IdleOrder order) {
 			this.factory = factory;
-			sem = new ResizeableSemaphore(poolSize);
+			permits = new ResizeablePermits(poolSize, fair);
+			if (order == IdleOrder.LIFO) {
+				stack = new ConcurrentStack<ConnectionHolder>();
+				available = stack;
+			} else {
+				stack = null;
+				available = new ConcurrentLinkedQueue<ConnectionHolder>();
+			}
+		}
+		
+		/**
+		 * Iterate the available connections, starting from the one that has
+		 * been in the pool for the longest time. The connections of the
+		 * thread-affine cache are not included.
+		 */
+		Iterator<ConnectionHolder> oldestAvailable() {
+			final Iterator<ConnectionHolder> older = oldest.iterator();
+			final Iterator<ConnectionHolder> newer = stack != null ? stack.descendingIterator() : available.iterator();
+			return new Iterator<ConnectionHolder>() {
+				public boolean hasNext() {
+					return older.hasNext() || newer.hasNext();
+				}
+				public ConnectionHolder next() {
+					return older.hasNext() ? older.next() : newer.next();
+				}
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+		
+		/**
+		 * Remove an available connection found near the start of
+		 * {@link #oldestAvailable()}, without traversing the rest.
+		 */
+		boolean removeOldAvailable(ConnectionHolder ch) {
+			boolean removed = oldest.remove(ch) ||
+				(stack != null ? stack.removeLastOccurrence(ch) : available.remove(ch));
+			if (removed) {
+				metrics.idle.decrement();
+			}
+			return removed;
+		}
+		
+		/**
+		 * Remove an idle connection found either in the thread-affine cache
+		 * or near the start of {@link #oldestAvailable()}.
+		 */
+		boolean removeIdle(ConnectionHolder ch) {
+			return removeCached(ch) || removeOldAvailable(ch);
+		}
+		
+		boolean removeCached(ConnectionHolder ch) {
+			if (cache.remove(ch)) {
+				metrics.idle.decrement();
+				return true;
+			}
+			return false;
 		}
 		
 		int resize(int newSize) {
-			return sem.resize(newSize);
+			return permits.resize(newSize);
 		}
 		
 		void shutdown(PoolConfig config) {
 			log.debug("The thread-pool is shutting down...");
-			int acquired = sem.drainPermits();
+			int acquired = permits.drainPermits();
 			if (acquired != 0) {
 				for (int i=0; i < acquired; i++) {
-					ConnectionHolder ch = available.poll();
+					ConnectionHolder ch = pollAvailable();
 					if (ch != null) {
-						proc.discard(ch.getConnection());
+						discard(ch);
 					}
 				}
 			}
-			while (acquired < config.getPoolSize()) {
+			while (acquired < permits.size()) {
 				try {
-					boolean success = sem.tryAcquire(config.getShutdownTimeout().toMillis(), TimeUnit.MILLISECONDS);
+					boolean success = permits.tryAcquire(config.getShutdownTimeout().toMillis(), TimeUnit.MILLISECONDS);
 					if (! success) {
 						break; // on timeout we exit
 					}
 					acquired++;
-					ConnectionHolder ch = available.poll();
+					ConnectionHolder ch = pollAvailable();
 					if (ch != null) {
-						proc.discard(ch.getConnection());
+						discard(ch);
 					}
 				} catch (InterruptedException e) {
 					Thread.currentThread().interrupt();
@@ -244,126 +695,1001 @@ public class ConnectionPool {
 		}
 		
 		Connection borrowConnection(PoolConfig config, ConnectionPool pool, long timeout, TimeUnit unit) throws SQLException {
+			long start = System.nanoTime();
+			ConnectionHolder handedOff = null;
 			try {
-				boolean acquired = sem.tryAcquire(timeout, unit);
-				if (!acquired) {
-					throw new SQLException("Timeout expired (" + new Duration(timeout, unit) + ") while waiting to acquire a JDBC connection from pool.");
+				if (config.isDirectHandoff()) {
+					Object item = permits.tryAcquireItem(timeout, unit);
+					if (item == null) {
+						throw timeout(timeout, unit);
+					}
+					if (item != ResizeablePermits.NO_ITEM) {
+						handedOff = (ConnectionHolder) item;
+					}
+				} else if (!permits.tryAcquire(timeout, unit)) {
+					throw timeout(timeout, unit);
 				}
+			} catch (InterruptedException e1) {
+				throw new SQLException("Interrupted while waiting for connection permit.");
+			}
+			return lease(config, pool, handedOff, start, start + unit.toNanos(timeout));
+		}
+		
+		/**
+		 * Borrow a connection without blocking the calling thread.
+		 * 
+		 * <p>The request for a permit waits in the same queue as the blocked
+		 * borrowers. When it gets a permit the connection is acquired (and
+		 * maybe validated or created) by the specified executor.
+		 */
+		void borrowConnectionAsync(final PoolConfig config, final ConnectionPool pool,
+								   final BorrowFuture future, final Executor executor, long timeoutNanos) {
+			final long start = System.nanoTime();
+			final long deadline = start + timeoutNanos;
+			Object request = permits.acquireAsync(new ResizeablePermits.PermitCallback() {
+				public void acquired(Object item) {
+					final ConnectionHolder handedOff = item == ResizeablePermits.NO_ITEM ? null : (ConnectionHolder) item;
+					if (!future.startLease()) {
+						giveBack(handedOff);
+						return;
+					}
+					try {
+						executor.execute(new Runnable() {
+							public void run() {
+								try {
+									future.complete(lease(config, pool, handedOff, start, deadline));
+								} catch (SQLException e) {
+									future.fail(e);
+								}
+							}
+						});
+					} catch (RejectedExecutionException e) {
+						giveBack(handedOff);
+						future.fail(new SQLException("Could not acquire a JDBC connection, the pool has been shut down."));
+					}
+				}
+			});
+			future.setPermitRequest(permits, request);
+		}
+		
+		/**
+		 * Give back a permit, and the connection that was handed off with it,
+		 * that was acquired for a borrow that got cancelled.
+		 */
+		private void giveBack(ConnectionHolder handedOff) {
+			if (handedOff != null) {
+				putAvailable(handedOff);
+			}
+			permits.release();
+		}
+		
+		/**
+		 * Get a connection for a borrower that holds a permit. The permit gets
+		 * released if a connection could not be acquired.
+		 * 
+		 * @param handedOff the connection handed off with the permit or {@code null}
+		 * @param start the {@code System.nanoTime()} when the borrow started
+		 * @param deadline the {@code System.nanoTime()} when the borrow times out
+		 */
+		Connection lease(PoolConfig config, ConnectionPool pool, ConnectionHolder handedOff, long start, long deadline) throws SQLException {
+			boolean leased = false;
+			try {
 				for (int retries = 0; retries < config.getAcquisitionRetries(); retries++) {
-					ConnectionHolder holder = getConnection();
-					if (config.isValidateOnBorrow()) {
-						if (!proc.isValid(holder.getConnection(), config.getValidationTimeout())) {
+					ConnectionHolder holder;
+					if (handedOff != null) {
+						holder = handedOff;
+						handedOff = null;
+					} else {
+						holder = getConnection(config, deadline);
+					}
+					if (config.isValidateOnBorrow() && !config.isBackgroundValidation()) {
+						if (holder.wasReturnedWithin(config.getValidationBypassWindow())) {
+							metrics.validationsSkipped.increment();
+						} else if (!isValid(config, holder)) {
 							// we got an invalid connection, try to close and retry...
-							proc.discard(holder.getConnection());
+							discard(holder);
+							requestFill();
 							continue;
 						}
 					}
 					try {
-						proc.applyDefaults(holder.getConnection(), config);
+						proc.applyDefaults(holder, config);
 					} catch (SQLException e) {
+						discard(holder);
 						continue; // ... to get another connection
 					}
-					return new PooledConnection(holder, pool);
+					configureStatementCache(config, holder);
+					holder.setBorrowed();
+					if (shouldCaptureTrace(config, holder)) {
+						holder.setBorrowTrace(new Throwable("Connection borrowed here"));
+					}
+					metrics.borrowWaitTime.recordSince(start);
+					metrics.connectionBorrowed(permits.size() - permits.availablePermits());
+					PooledConnection c = new PooledConnection(holder, pool);
+					if (config.isReclaimUnreachableConnections()) {
+						holder.setLeaseReference(new LeaseReference(c, holder, unreachable));
+					}
+					leased = true;
+					return c;
 				}
 				throw new SQLException("Coule not acquire a valid JDBC connection after " +
 										config.getAcquisitionRetries() + " retries");
-			} catch (InterruptedException e1) {
-				throw new SQLException("Interrupted while waiting for connection permit.");
+			} finally {
+				if (!leased) {
+					permits.release();
+				}
+			}
+		}
+		
+		SQLException timeoutException(long timeout, TimeUnit unit) {
+			return new SQLException("Timeout expired (" + new Duration(timeout, unit) + ") while waiting to acquire a JDBC connection from pool.");
+		}
+		
+		private SQLException timeout(long timeout, TimeUnit unit) {
+			metrics.timeouts.incrementAndGet();
+			return timeoutException(timeout, unit);
+		}
+		
+		/**
+		 * Create, replace or remove the statement cache of the specified holder
+		 * to match the configured cache size.
+		 */
+		private void configureStatementCache(PoolConfig config, ConnectionHolder holder) {
+			int size = config.getStatementCacheSize();
+			StatementCache cache = holder.getStatementCache();
+			if (cache != null && cache.capacity() == size) {
+				return;
+			}
+			if (cache != null) {
+				cache.clear();
+			}
+			holder.setStatementCache(size > 0 ? new StatementCache(size, metrics) : null);
+		}
+		
+		private boolean shouldCaptureTrace(PoolConfig config, ConnectionHolder holder) {
+			int rate = config.getLeakTraceSampleRate();
+			return rate > 0 && holder.getLease() % rate == 0 &&
+					config.getLeakDetectionThreshold().toNanos() > 0;
+		}
+		
+		boolean isValid(PoolConfig config, ConnectionHolder holder) {
+			long start = System.nanoTime();
+			boolean valid = proc.isValid(holder.getConnection(), config.getValidationTimeout());
+			metrics.validationTime.recordSince(start);
+			if (!valid) {
+				metrics.validationFailures.incrementAndGet();
+			}
+			return valid;
+		}
+		
+		ConnectionHolder newHolder(PoolConfig config) throws SQLException {
+			long start = System.nanoTime();
+			Connection c;
+			try {
+				c = factory.create();
+			} catch (SQLException e) {
+				metrics.creationFailures.incrementAndGet();
+				throw e;
+			}
+			metrics.creationTime.recordSince(start);
+			ConnectionHolder holder = new ConnectionHolder(c);
+			long maxLifetime = config.getMaxLifetime().toNanos();
+			if (maxLifetime > 0) {
+				holder.setLifetime(maxLifetime - jitter(maxLifetime));
+			}
+			holders.add(holder);
+			return holder;
+		}
+		
+		/**
+		 * A random amount, up to a tenth of the max lifetime, to subtract from
+		 * the lifetime of each connection so that the connections created
+		 * together do not get retired together.
+		 */
+		private long jitter(long maxLifetime) {
+			return (long) (random.nextDouble() * (maxLifetime / LIFETIME_JITTER_DIVISOR));
+		}
+		
+		/**
+		 * Whether a returned connection has reached the end of its lifetime
+		 * or has been borrowed the maximum number of times.
+		 */
+		private boolean mustRetire(PoolConfig config, ConnectionHolder holder) {
+			int maxUses = config.getMaxUsesPerConnection();
+			return holder.isExpired() || (maxUses > 0 && holder.getTimesUsed() >= maxUses);
+		}
+		
+		/**
+		 * Discard a connection that has reached the end of its lifetime or
+		 * its maximum number of uses.
+		 */
+		void retire(ConnectionHolder holder) {
+			metrics.retirements.incrementAndGet();
+			log.debug("Retiring JDBC connection [" + holder.getConnection() + "] used " + holder.getTimesUsed() + " times");
+			discard(holder);
+		}
+		
+		/**
+		 * Create a connection in the background to replace a retired one, or
+		 * if the housekeeping executor has not been created ask the filler to
+		 * fill the pool.
+		 */
+		void replace(PoolConfig config) {
+			ScheduledExecutorService executor = housekeeper;
+			if (executor == null) {
+				requestFill();
+				return;
+			}
+			try {
+				executor.execute(new ConnectionReplacer(config));
+			} catch (RejectedExecutionException e) {
+				// the pool is shutting down or reconfigured
+			}
+		}
+		
+		void discard(ConnectionHolder holder) {
+			holders.remove(holder);
+			metrics.discards.incrementAndGet();
+			proc.discard(holder.getConnection());
+		}
+		
+		ConnectionHolder getConnection(PoolConfig config, long deadline) throws SQLException {
+			ConnectionHolder holder = null;
+			if (config.isThreadAffinity()) {
+				holder = cache.poll();
+				if (holder != null) {
+					metrics.idle.decrement();
+				}
+			}
+			if (holder == null) {
+				holder = pollAvailable();
+			}
+			if (available.isEmpty() && oldest.isEmpty()) {
+				requestFill();
+			}
+			if (holder == null) {
+				holder = createConnection(config, deadline);
+			}
+			return holder;
+		}
+		
+		/**
+		 * Create a new connection for a borrower that holds a permit.
+		 * 
+		 * <p>When the number of concurrent creations is limited, the borrower
+		 * queues and gets handed the first connection that becomes available,
+		 * either created by another borrower or returned. A borrower starts a
+		 * creation only while the connections being created are less than the
+		 * limit and leaves the queue while creating, when the creation finishes
+		 * the new connection goes to the borrower that waits the longest (if
+		 * any) and the creator queues again. The borrower waits until the
+		 * deadline of its borrow.
+		 * 
+		 * @param deadline the {@code System.nanoTime()} when the borrow times out
+		 * @see PoolConfig#getMaxConcurrentCreations()
+		 */
+		ConnectionHolder createConnection(PoolConfig config, long deadline) throws SQLException {
+			int maxCreations = config.getMaxConcurrentCreations();
+			if (maxCreations <= 0) {
+				return newHolder(config);
+			}
+			creationWaiters.incrementAndGet();
+			try {
+				return awaitConnection(config, maxCreations, deadline);
+			} finally {
+				creationWaiters.decrementAndGet();
+			}
+		}
+		
+		private ConnectionHolder awaitConnection(PoolConfig config, int maxCreations, long deadline) throws SQLException {
+			HolderWaiter w = new HolderWaiter();
+			holderWaiters.add(w);
+			for (;;) {
+				ConnectionHolder ch = w.get();
+				if (ch != null) {
+					return ch;
+				}
+				ch = pollAvailable();
+				if (ch != null) {
+					if (cancel(w)) {
+						return ch;
+					}
+					putAvailable(ch); // we got handed a connection at the same time
+					return w.get();
+				}
+				if (tryStartCreation(maxCreations)) {
+					// while creating we are not waiting, leave the queue
+					if (!cancel(w)) {
+						endCreation();
+						return w.get();
+					}
+					boolean handedOff = false;
+					try {
+						ch = newHolder(config);
+						handedOff = handOffToWaiter(ch);
+					} finally {
+						endCreation();
+					}
+					if (!handedOff) {
+						return ch;
+					}
+					// a borrower that was waiting before us got the connection
+					w = new HolderWaiter();
+					holderWaiters.add(w);
+					continue;
+				}
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					if (cancel(w)) {
+						metrics.timeouts.incrementAndGet();
+						throw new SQLException("Timeout expired while waiting for a new JDBC connection to get created.");
+					}
+					return w.get();
+				}
+				LockSupport.parkNanos(this, remaining);
+			}
+		}
+		
+		private boolean cancel(HolderWaiter w) {
+			if (w.cancel()) {
+				holderWaiters.remove(w);
+				return true;
+			}
+			return false;
+		}
+		
+		private void endCreation() {
+			creationsInFlight.decrementAndGet();
+			// let the next waiting borrower start a creation
+			signalHolderWaiter();
+		}
+		
+		private boolean tryStartCreation(int maxCreations) {
+			for (;;) {
+				int c = creationsInFlight.get();
+				if (c >= maxCreations) {
+					return false;
+				}
+				if (creationsInFlight.compareAndSet(c, c + 1)) {
+					return true;
+				}
+			}
+		}
+		
+		/**
+		 * Hand the specified holder to the first borrower that waits for a
+		 * connection to get created.
+		 * 
+		 * @return {@code true} if the holder got handed to a borrower
+		 */
+		boolean handOffToWaiter(ConnectionHolder ch) {
+			HolderWaiter w;
+			while ((w = holderWaiters.poll()) != null) {
+				if (w.compareAndSet(null, ch)) {
+					LockSupport.unpark(w.thread);
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		void putAvailable(ConnectionHolder ch) {
+			metrics.idle.increment();
+			available.add(ch);
+			// a borrower might have queued after we found no waiters
+			signalHolderWaiter();
+		}
+		
+		private void signalHolderWaiter() {
+			for (;;) {
+				HolderWaiter w = holderWaiters.peek();
+				if (w == null) {
+					return;
+				}
+				if (w.get() == null) {
+					LockSupport.unpark(w.thread);
+					return;
+				}
+				holderWaiters.remove(w);
 			}
 		}
 		
-		ConnectionHolder getConnection() throws SQLException {
-			ConnectionHolder holder = available.poll();
+		/**
+		 * Ask the filler, if pre-fill is enabled, to create idle connections
+		 * in the background.
+		 */
+		void requestFill() {
+			IdleConnectionsFiller f = filler;
+			if (f != null) {
+				f.request();
+			}
+		}
+		
+		/**
+		 * Take a connection from the shared queue, in the configured order, or,
+		 * if the queue is empty, steal one from the thread-affine cache.
+		 */
+		ConnectionHolder pollAvailable() {
+			ConnectionHolder holder;
+			if (stack != null) {
+				holder = available.poll();
+				if (holder == null) {
+					holder = oldest.pollLast();
+				}
+			} else {
+				holder = oldest.pollFirst();
+				if (holder == null) {
+					holder = available.poll();
+				}
+			}
 			if (holder == null) {
-				holder = new ConnectionHolder(factory.create()); 
+				holder = cache.steal();
+			}
+			if (holder != null) {
+				metrics.idle.decrement();
 			}
 			return holder;
 		}
+		
+		boolean isEmpty() {
+			return available.isEmpty() && oldest.isEmpty() && cache.isEmpty();
+		}
+		
+		/**
+		 * The number of borrowers that wait for a permit or for a connection
+		 * to get created.
+		 */
+		int getWaitingThreads() {
+			return permits.getQueueLength() + creationWaiters.get();
+		}
 
 		void returnConnection(PoolConfig config, ConnectionHolder holder) {
+			if (permits.tryRetire()) {
+				log.debug("The pool has been shrunk so the returned connection will be discarded");
+				discard(holder);
+				return;
+			}
+			boolean handedOff = false;
 			try {
-				boolean resetOk =  proc.reset(holder.getConnection());
+				if (mustRetire(config, holder)) {
+					retire(holder);
+					replace(config);
+					return;
+				}
+				long start = System.nanoTime();
+				int leftOpen = holder.getOpenStatements().closeAll();
+				if (leftOpen > 0) {
+					metrics.statementsLeftOpen.addAndGet(leftOpen);
+				}
+				boolean resetOk =  proc.reset(holder);
+				metrics.resetTime.recordSince(start);
 				boolean isValid = true;
-				if (config.isValidateOnReturn()) {
-					isValid = proc.isValid(holder.getConnection(), config.getValidationTimeout());
+				if (config.isValidateOnReturn() && !config.isBackgroundValidation()) {
+					isValid = isValid(config, holder);
 				}
 				if (resetOk && isValid) {
-					available.add(holder);
+					holder.setReturned();
+					if (handOffToWaiter(holder)) {
+						// a borrower was waiting for a connection to get created
+					} else if (config.isDirectHandoff() && permits.handOff(holder)) {
+						// the borrower got our permit along with the connection
+						handedOff = true;
+					} else if (config.isThreadAffinity()) {
+						metrics.idle.increment();
+						if (!cache.offer(holder)) {
+							available.add(holder);
+						}
+						signalHolderWaiter();
+					} else {
+						putAvailable(holder);
+					}
 				} else {
 					log.debug("The returned connection was invalid so it will be discarted");
-					proc.discard(holder.getConnection());
+					discard(holder);
+					requestFill();
 				}
 			} finally {
-				sem.release();
+				if (!handedOff) {
+					permits.release();
+				}
 			}
-			
 		}
 		
 		
 		// -----------------------------------------------------------------------
 		
 		
+		/**
+		 * Adjusts the size of the pool using an {@link AdaptiveSizer}.
+		 */
+		class PoolResizer implements Runnable {
+			
+			private final ConnectionPool pool;
+			private final AdaptiveSizer sizer = new AdaptiveSizer(metrics, System.nanoTime());
+			
+			PoolResizer(ConnectionPool cp) {
+				pool = cp;
+			}
+			
+			public void run() {
+				pool.lock.lock();
+				try {
+					int size = permits.size();
+					int newSize = sizer.nextSize(pool.getConfiguration(), size, getWaitingThreads(), System.nanoTime());
+					if (newSize != size) {
+						log.info("Resizing the pool from " + size + " to " + newSize + " connections");
+						permits.resize(newSize);
+					}
+				} finally {
+					pool.lock.unlock();
+				}
+			}
+		}
+		
+		/**
+		 * Discards the connections that have been idle for longer than the
+		 * idle timeout, leaving min-idle connections in the pool.
+		 * 
+		 * <p>The available connections are ordered by the time they were
+		 * returned, so the idle ones are found at the oldest end without
+		 * a scan of the pool and the oldest ones get discarded first. A
+		 * collection costs time proportional to the number of the idle
+		 * connections.
+		 * 
+		 * <p>The collector neither takes a lock nor a permit, so it never
+		 * blocks and never competes with the borrowers. A connection is
+		 * swept only if it gets removed from the available queue, which
+		 * atomically excludes the borrowers, and gets discarded after the
+		 * collection. Only one collection runs at a time, a collection that
+		 * finds another one running is skipped.
+		 */
 		class IdleConnectionsCollector implements Runnable {
 			
 			private final ConnectionPool pool;
-			private final Object lock;
 			
-			IdleConnectionsCollector(ConnectionPool cp, Object lock) {
+			IdleConnectionsCollector(ConnectionPool cp) {
 				pool = cp; 
-				this.lock = lock;
 			}
 			
 			public void run() {
-				synchronized (lock) {
+				if (!collecting.compareAndSet(false, true)) {
+					return;
+				}
+				List<ConnectionHolder> removed = Collections.emptyList();
+				try {
 					StopWatch watch = new StopWatch("Idle connection collection");
 					watch.start();
 					PoolConfig config = pool.getConfiguration();
-					try {
-						sem.acquire();
-						log.debug("Running idle connection collector...");
-						try {
-							Collection<ConnectionHolder> idle = mark(config);
-							if (idle.size() >= config.getMaxIdle()) {
-								sweep(config, idle, idle.size() - config.getMinIdle());
-							}
-						} finally {
-							sem.release();
-						}
-					} catch (InterruptedException ignore) { }
+					log.debug("Running idle connection collector...");
+					Collection<ConnectionHolder> idle = mark(config);
+					if (idle.size() >= config.getMaxIdle()) {
+						removed = sweep(config, idle, idle.size() - config.getMinIdle());
+					}
 					watch.stop();
 					log.debug(watch.toString());
+				} finally {
+					collecting.set(false);
 				}
+				for (ConnectionHolder ch : removed) {
+					discard(ch);
+					log.debug("Removed idle JDBC connection: [" + ch.getConnection() + "] from pool");
+				}
+				requestFill();
 			}
 			
+			/**
+			 * Find the idle connections, the shared ones from the least
+			 * recently returned and then the ones of the thread-affine cache.
+			 */
 			private Collection<ConnectionHolder> mark(PoolConfig config) {
-				List<ConnectionHolder> idle = new ArrayList<ConnectionHolder>(config.getPoolSize());
-				for (ConnectionHolder ch : available) {
+				List<ConnectionHolder> idle = new ArrayList<ConnectionHolder>();
+				for (Iterator<ConnectionHolder> i = oldestAvailable(); i.hasNext();) {
+					ConnectionHolder ch = i.next();
+					if (!ch.hasIdleConnection(config.getIdleTimeout())) {
+						break; // the rest were returned later
+					}
+					idle.add(ch);
+				}
+				List<ConnectionHolder> cached = new ArrayList<ConnectionHolder>();
+				cache.addTo(cached);
+				for (ConnectionHolder ch : cached) {
 					if (ch.hasIdleConnection(config.getIdleTimeout())) {
 						idle.add(ch);
 					}
 				}
-				Collections.sort(idle, ConnectionHolder.CREATION_TIME_COMPARATOR);
 				return idle;
 			}
 			
-			private void sweep(PoolConfig config, Collection<ConnectionHolder> idleConnections, int toBeRemoved) {
-				int connectionsRemoved = 0;
+			/**
+			 * Take the idle connections out of the pool, the caller discards
+			 * them when the collection ends.
+			 */
+			private List<ConnectionHolder> sweep(PoolConfig config, Collection<ConnectionHolder> idleConnections, int toBeRemoved) {
+				List<ConnectionHolder> removed = new ArrayList<ConnectionHolder>();
 				for (ConnectionHolder ch: idleConnections) {
-					if (connectionsRemoved == toBeRemoved)
+					if (removed.size() == toBeRemoved)
 						break;
-					if (available.remove(ch)) {
+					if (removeIdle(ch)) {
 						if (ch.hasIdleConnection(config.getIdleTimeout())) {
 							// it's still idle, discard it 
-							proc.discard(ch.getConnection());
-							connectionsRemoved++;
-							log.debug("Removed idle JDBC connection: [" + ch.getConnection() + "] from pool");
+							removed.add(ch);
 						} else {
 							// it's not idle now, add it back
-							available.add(ch);
+							putAvailable(ch);
 						}
 					}
 				}
+				return removed;
+			}
+		}
+		
+		
+		// -----------------------------------------------------------------------
+		
+		
+		/**
+		 * Retires the idle connections that have reached the end of their
+		 * lifetime, a borrowed connection gets retired when it is returned.
+		 * Every retired connection gets replaced in the background.
+		 * 
+		 * <p>A single task runs periodically, many times per max lifetime so
+		 * that the jitter of the lifetimes still spreads the retirements, and
+		 * every run scans the idle connections once.
+		 */
+		class ConnectionRetirer implements Runnable {
+			
+			private final ConnectionPool pool;
+			
+			ConnectionRetirer(ConnectionPool cp) {
+				pool = cp;
+			}
+			
+			public void run() {
+				PoolConfig config = pool.getConfiguration();
+				List<ConnectionHolder> expired = new ArrayList<ConnectionHolder>();
+				for (Iterator<ConnectionHolder> i = oldestAvailable(); i.hasNext();) {
+					ConnectionHolder ch = i.next();
+					if (ch.isExpired()) {
+						expired.add(ch);
+					}
+				}
+				List<ConnectionHolder> cached = new ArrayList<ConnectionHolder>();
+				cache.addTo(cached);
+				for (ConnectionHolder ch : cached) {
+					if (ch.isExpired()) {
+						expired.add(ch);
+					}
+				}
+				for (ConnectionHolder ch : expired) {
+					if (removeIdle(ch)) {
+						retire(ch);
+						replace(config);
+					}
+				}
+			}
+		}
+		
+		
+		// -----------------------------------------------------------------------
+		
+		
+		/**
+		 * Validates the idle connections that have not been used or validated
+		 * for a validation interval and discards the invalid ones.
+		 * 
+		 * <p>The connections to validate are first found by iterating the
+		 * available connections from the oldest end, so with both orders
+		 * every idle connection gets checked and not only the one that is
+		 * put back on the top of the stack.
+		 * 
+		 * <p>A connection is taken out of the available queue while it gets
+		 * validated, so borrowers never get a connection that has not passed
+		 * the validation. A permit is held for every validation so that the
+		 * borrowers do not create a new connection in the meantime. When
+		 * there are no permits the pool is exhausted and there is nothing to
+		 * validate.
+		 */
+		class BackgroundValidator implements Runnable {
+			
+			private final ConnectionPool pool;
+			
+			BackgroundValidator(ConnectionPool cp) {
+				pool = cp;
+			}
+			
+			public void run() {
+				PoolConfig config = pool.getConfiguration();
+				int discarded = 0;
+				for (ConnectionHolder ch : candidates(config)) {
+					if (!permits.tryAcquire()) {
+						break;
+					}
+					try {
+						boolean cached = removeCached(ch);
+						if (!cached && !removeOldAvailable(ch)) {
+							continue; // got borrowed in the meantime
+						}
+						if (ch.isExpired()) {
+							retire(ch);
+							discarded++;
+						} else if (isValid(config, ch)) {
+							ch.setValidated();
+							putBack(ch, cached);
+						} else {
+							discard(ch);
+							discarded++;
+						}
+					} finally {
+						permits.release();
+					}
+				}
+				if (discarded > 0) {
+					log.debug("Background validation discarded " + discarded + " invalid JDBC connections");
+					requestFill();
+				}
+			}
+			
+			private List<ConnectionHolder> candidates(PoolConfig config) {
+				List<ConnectionHolder> idle = new ArrayList<ConnectionHolder>();
+				for (Iterator<ConnectionHolder> i = oldestAvailable(); i.hasNext();) {
+					idle.add(i.next());
+				}
+				cache.addTo(idle);
+				List<ConnectionHolder> candidates = new ArrayList<ConnectionHolder>();
+				for (ConnectionHolder ch : idle) {
+					if (ch.isExpired() || ch.needsValidation(config.getValidationInterval())) {
+						candidates.add(ch);
+					}
+				}
+				return candidates;
+			}
+			
+			/**
+			 * Put a validated connection back where it was found, a shared
+			 * connection goes to the oldest end since the connections are
+			 * validated starting from the least recently returned.
+			 */
+			private void putBack(ConnectionHolder ch, boolean cached) {
+				metrics.idle.increment();
+				if (!cached || !cache.offerToAny(ch)) {
+					oldest.add(ch);
+				}
+				signalHolderWaiter();
+			}
+		}
+			
+		
+		// -----------------------------------------------------------------------
+		
+		
+		/**
+		 * Creates a connection, off the request path, to replace a connection
+		 * that was retired when returned to the pool.
+		 * 
+		 * <p>Like the filler it holds a permit while the connection gets
+		 * created and does nothing when the pool is exhausted or when the
+		 * idle connections are already as many as the available permits.
+		 */
+		class ConnectionReplacer implements Runnable {
+			
+			private final PoolConfig config;
+			
+			ConnectionReplacer(PoolConfig config) {
+				this.config = config;
+			}
+			
+			public void run() {
+				if (!permits.tryAcquire()) {
+					return;
+				}
+				try {
+					if (metrics.getIdleConnections() > permits.availablePermits()) {
+						return;
+					}
+					ConnectionHolder ch = newHolder(config);
+					if (!handOffToWaiter(ch)) {
+						putAvailable(ch);
+					}
+				} catch (SQLException e) {
+					log.warn("Could not create a JDBC connection to replace a retired one", e);
+				} finally {
+					permits.release();
+				}
+			}
+		}
+		
+		
+		// -----------------------------------------------------------------------
+		
+		
+		/**
+		 * Creates connections, off the request path, until the pool has
+		 * min-idle idle connections.
+		 * 
+		 * <p>Fill requests are coalesced, at most one fill is pending at any
+		 * time. A permit is held while each connection gets created so that
+		 * the idle connections never exceed the available permits, when there
+		 * are no permits the pool is exhausted and filling stops.
+		 */
+		class IdleConnectionsFiller implements Runnable {
+			
+			private final ConnectionPool pool;
+			private final Executor executor;
+			private final AtomicBoolean pending = new AtomicBoolean();
+			
+			IdleConnectionsFiller(ConnectionPool cp, Executor executor) {
+				pool = cp;
+				this.executor = executor;
+			}
+			
+			void request() {
+				if (pending.compareAndSet(false, true)) {
+					try {
+						executor.execute(this);
+					} catch (RejectedExecutionException e) {
+						pending.set(false); // the pool is shutting down or reconfigured
+					}
+				}
+			}
+			
+			public void run() {
+				pending.set(false);
+				PoolConfig config = pool.getConfiguration();
+				int created = 0;
+				while (permits.tryAcquire()) {
+					try {
+						int idle = metrics.getIdleConnections();
+						if (idle >= config.getMinIdle() || idle > permits.availablePermits()) {
+							break;
+						}
+						ConnectionHolder ch = newHolder(config);
+						if (!handOffToWaiter(ch)) {
+							putAvailable(ch);
+						}
+						created++;
+					} catch (SQLException e) {
+						log.warn("Could not create a JDBC connection to fill the pool", e);
+						break;
+					} finally {
+						permits.release();
+					}
+				}
+				if (created > 0) {
+					log.debug("Filled the pool with " + created + " new JDBC connections");
+				}
+			}
+		}
+			
+		
+		// -----------------------------------------------------------------------
+		
+		
+		/**
+		 * A borrower that waits for a connection to get created. The holder
+		 * that gets handed to the borrower is kept in the inherited reference.
+		 */
+		@SuppressWarnings("serial")
+		private static final class HolderWaiter extends AtomicReference<ConnectionHolder> {
+			
+			private static final ConnectionHolder CANCELLED = new ConnectionHolder(null);
+			
+			final Thread thread = Thread.currentThread();
+			
+			/**
+			 * @return {@code true} if the waiter got cancelled and {@code false}
+			 *         if a holder has been handed to it.
+			 */
+			boolean cancel() {
+				return compareAndSet(null, CANCELLED);
+			}
+		}
+			
+		
+		// -----------------------------------------------------------------------
+		
+		
+		/**
+		 * Reports the connections that have been borrowed for longer than the
+		 * leak detection threshold and, if configured, reclaims them.
+		 * 
+		 * <p>The detector scans the holders of the open connections, so it
+		 * does not keep a reference to the {@code PooledConnection} of the
+		 * client. A reclaimed connection gets closed and its permit returned
+		 * to the pool, the lease of the {@code PooledConnection} ends so it
+		 * appears closed to the client and closing it has no effect.
+		 */
+		class LeakDetector implements Runnable {
+			
+			private final ConnectionPool pool;
+			
+			LeakDetector(ConnectionPool cp) {
+				pool = cp;
+			}
+			
+			public void run() {
+				PoolConfig config = pool.getConfiguration();
+				long threshold = config.getLeakDetectionThreshold().toNanos();
+				if (threshold <= 0) {
+					return;
+				}
+				long now = System.nanoTime();
+				for (ConnectionHolder ch : holders) {
+					int lease = ch.getLease();
+					if (lease == 0 || now - ch.getLastBorrowTime() < threshold) {
+						continue;
+					}
+					if (ch.markLeakReported(lease)) {
+						metrics.leaks.incrementAndGet();
+						report(config, ch);
+					}
+					if (config.isReclaimLeakedConnections() && ch.endLease(lease)) {
+						metrics.reclaims.incrementAndGet();
+						metrics.connectionReturned();
+						discard(ch);
+						permits.release();
+						requestFill();
+					}
+				}
+			}
+			
+			private void report(PoolConfig config, ConnectionHolder ch) {
+				String msg = "JDBC connection [" + ch.getConnection() + "] has been borrowed for more than " +
+							 config.getLeakDetectionThreshold() + ", possible connection leak";
+				Throwable trace = ch.getBorrowTrace();
+				if (trace != null) {
+					log.warn(msg, trace);
+				} else {
+					log.warn(msg + " (set leakTraceSampleRate to capture the stack trace of the borrower)");
+				}
+			}
+		}
+			
+		
+		// -----------------------------------------------------------------------
+		
+		
+		/**
+		 * Returns to the pool the connections whose {@code PooledConnection}
+		 * became unreachable without getting closed.
+		 */
+		class UnreachableConnectionsCollector implements Runnable {
+			
+			private final ConnectionPool pool;
+			
+			UnreachableConnectionsCollector(ConnectionPool cp) {
+				pool = cp;
+			}
+			
+			public void run() {
+				Reference<? extends PooledConnection> ref;
+				while ((ref = unreachable.poll()) != null) {
+					LeaseReference lr = (LeaseReference) ref;
+					if (lr.holder.endLease(lr.lease)) {
+						metrics.unreachableReclaims.incrementAndGet();
+						log.warn("JDBC connection [" + lr.holder.getConnection() + "] was not closed before it became unreachable, returning it to the pool");
+						pool.returnConnection(lr.holder);
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Tracks the reachability of the {@code PooledConnection} of a lease.
+		 * 
+		 * <p>The reference is kept by the holder and gets cleared when the lease
+		 * ends, so only the references of the connections that were not closed
+		 * get enqueued.
+		 */
+		private static final class LeaseReference extends PhantomReference<PooledConnection> {
+			
+			final ConnectionHolder holder;
+			final int lease;
+			
+			LeaseReference(PooledConnection c, ConnectionHolder ch, ReferenceQueue<PooledConnection> q) {
+				super(c, q);
+				holder = ch;
+				lease = ch.getLease();
 			}
 		}
 	}
-}
\ No newline at end of file
+}
@@ -20,23 +20,42 @@ class ConnectionProcessor {
 
 	
 	/**
-	 * Apply the default configuration settings to the specified JDBC connection.
+	 * Apply the default configuration settings to the connection of the
+	 * specified holder.
+	 * 
+	 * <p>Only the settings that differ from the state known by the holder
+	 * get applied, and the holder gets updated with the applied values.
 	 * 
 	 * <p>If an exception occurs then there is no guarantee that any of the settings
-	 * got applied.
+	 * got applied and the holder forgets the state of the connection.
 	 * 
 	 * @throws SQLException if something goes wrong during the configuration.
 	 */
-	void applyDefaults(Connection c, ConnectionDefaults defaults) throws SQLException {
-		c.setAutoCommit(defaults.isDefaultAutocommit());
-		if (defaults.getDefaultReadOnly() != null) {
-			c.setReadOnly(defaults.getDefaultReadOnly());
-		}
-		if (defaults.getDefaultIsolation() != TxIsolation.UNDEFINED) {
-			c.setTransactionIsolation(defaults.getDefaultIsolation().jdbcValue());
-		}
-		if (defaults.getDefaultCatalog() != null) {
-			c.setCatalog(defaults.getDefaultCatalog());
+	void applyDefaults(ConnectionHolder ch, ConnectionDefaults defaults) throws SQLException {
+		Connection c = ch.getConnection();
+		try {
+			if (! Boolean.valueOf(defaults.isDefaultAutocommit()).equals(ch.getAutoCommit())) {
+				c.setAutoCommit(defaults.isDefaultAutocommit());
+				ch.setAutoCommit(defaults.isDefaultAutocommit());
+			}
+			Boolean readOnly = defaults.getDefaultReadOnly();
+			if (readOnly != null && ! readOnly.equals(ch.getReadOnly())) {
+				c.setReadOnly(readOnly);
+				ch.setReadOnly(readOnly);
+			}
+			TxIsolation isolation = defaults.getDefaultIsolation();
+			if (isolation != TxIsolation.UNDEFINED && ! Integer.valueOf(isolation.jdbcValue()).equals(ch.getTransactionIsolation())) {
+				c.setTransactionIsolation(isolation.jdbcValue());
+				ch.setTransactionIsolation(isolation.jdbcValue());
+			}
+			String catalog = defaults.getDefaultCatalog();
+			if (catalog != null && ! catalog.equals(ch.getCatalog())) {
+				c.setCatalog(catalog);
+				ch.setCatalog(catalog);
+			}
+		} catch (SQLException e) {
+			ch.clearState();
+			throw e;
 		}
 	}
 	
@@ -86,6 +105,56 @@ class ConnectionProcessor {
 		return successfulReset;
 	}
 
+	/**
+	 * Resets the connection of the specified holder using the state known by
+	 * the holder to avoid unnecessary calls to the driver.
+	 * 
+	 * <p>The warnings are cleared only if the client got any and the connection gets
+	 * roll-backed only if a statement was executed since the last commit or
+	 * rollback and the connection is not in auto-commit mode. When the holder
+	 * does not know whether a transaction is active a full {@link #reset(Connection)}
+	 * is performed.
+	 * 
+	 * @return {@code true} if no errors occurred, else {@code false}.
+	 */
+	boolean reset(ConnectionHolder ch) {
+		Connection c = ch.getConnection();
+		Boolean transactionActive = ch.isTransactionActive();
+		if (transactionActive == null) {
+			boolean successfulReset = reset(c);
+			if (successfulReset) {
+				ch.setTransactionActive(false);
+				ch.setWarnings(false);
+			}
+			return successfulReset;
+		}
+		boolean successfulReset = true;
+		if (ch.hasWarnings()) {
+			try {
+				c.clearWarnings();
+				ch.setWarnings(false);
+			} catch  (SQLException e) {
+				successfulReset = false;
+				log.warn("Could not clean the warnings from JDBC connection [" + c + "]");
+			}
+		}
+		if (transactionActive) {
+			try {
+				Boolean autoCommit = ch.getAutoCommit();
+				if (autoCommit == null) {
+					autoCommit = c.getAutoCommit();
+				}
+				if (! autoCommit) {
+					c.rollback();
+				}
+				ch.setTransactionActive(false);
+			} catch  (SQLException e) {
+				successfulReset = false;
+				log.warn("JDBC connection had autocommit false but we could not get it to rollback [" + c + "]");
+			}
+		}
+		return successfulReset;
+	}
 	
 	void discard(Connection c) {
 		try {
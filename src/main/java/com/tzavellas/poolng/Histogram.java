@@ -0,0 +1,147 @@
+package com.tzavellas.poolng;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations, in nanoseconds, with log-linear buckets.
+ *
+ * <p>Every power of two is split in 16 linear sub-buckets, so a recorded value
+ * is kept with a precision of about 6% (like HdrHistogram with one significant
+ * digit). The counts are kept in an {@code AtomicLongArray}, recording a value
+ * never blocks and never allocates.
+ *
+ * <p>The buckets are striped and the count and the sum are kept in
+ * {@link StripedCounter}s, so the threads that record values concurrently
+ * do not update the same variables. Only a value larger than the maximum
+ * updates the shared maximum.
+ *
+ * <p>The statistics are computed from the buckets while other threads may be
+ * recording values, so they are not an atomic snapshot.
+ *
+ * <p>This class is <b>thread-safe</b>.
+ *
+ * @author spiros
+ */
+public class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+	// every stripe is a full set of buckets, so at most four sets per histogram
+	private static final int STRIPES = Math.min(StripedCounter.STRIPES, 4);
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS * STRIPES);
+	private final StripedCounter count = new StripedCounter();
+	private final StripedCounter sum = new StripedCounter();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record the specified value, negative values are recorded as zero.
+	 */
+	void record(long nanos) {
+		long value = Math.max(nanos, 0);
+		int stripe = StripedCounter.stripe() & (STRIPES - 1);
+		counts.incrementAndGet(stripe * BUCKETS + indexOf(value));
+		count.increment();
+		sum.add(value);
+		for (;;) {
+			long m = max.get();
+			if (value <= m || max.compareAndSet(m, value)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Record the time elapsed since the specified {@code System.nanoTime()}.
+	 */
+	void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Get the number of recorded values.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Get the sum of the recorded values in nanoseconds.
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+
+	/**
+	 * Get the largest recorded value in nanoseconds.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Get the mean of the recorded values in nanoseconds.
+	 */
+	public double getMean() {
+		long c = count.get();
+		return c == 0 ? 0 : (double) sum.get() / c;
+	}
+
+	/**
+	 * Get the value, in nanoseconds, below which the specified percentage of
+	 * the recorded values fall.
+	 *
+	 * @param percentile a number between 0 and 100
+	 * @return the highest value of the bucket that contains the percentile
+	 *         or zero if no values have been recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("The argument [percentile] must be between 0 and 100!");
+		}
+		long[] merged = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			for (int s = 0; s < STRIPES; s++) {
+				merged[i] += counts.get(s * BUCKETS + i);
+			}
+			total += merged[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += merged[i];
+			if (seen >= rank) {
+				return Math.min(highestValueOf(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	// -----------------------------------------------------------------------
+
+	static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+	}
+
+	static long highestValueOf(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+		long subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+		long lowest = (1L << (shift + SUB_BUCKET_BITS)) | (subBucket << shift);
+		return lowest + (1L << shift) - 1;
+	}
+}
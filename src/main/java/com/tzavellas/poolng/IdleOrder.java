@@ -0,0 +1,22 @@
+package com.tzavellas.poolng;
+
+/**
+ * The order in which the idle connections of the pool get borrowed.
+ * 
+ * @author spiros
+ */
+public enum IdleOrder {
+	
+	/**
+	 * The connection that was returned first gets borrowed first, so all the
+	 * idle connections are used in turn.
+	 */
+	FIFO,
+	
+	/**
+	 * The connection that was returned last gets borrowed first, so the
+	 * borrowers get a recently used connection and the connections that are
+	 * not needed stay idle until they get evicted.
+	 */
+	LIFO
+}
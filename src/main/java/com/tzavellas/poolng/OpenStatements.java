@@ -0,0 +1,105 @@
+package com.tzavellas.poolng;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The physical statements of a connection that have been created by the
+ * clients and not yet closed.
+ *
+ * <p>The statements are kept in an array of slots that grows as needed and
+ * the free slots are kept in a stack of indexes, so adding and removing a
+ * statement takes constant time and does not allocate. Only the physical
+ * statements are kept (not the proxies), so an open statement does not keep
+ * the {@code PooledConnection} of the client reachable.
+ *
+ * <p>This class is <b>thread-safe</b>.
+ *
+ * @author spiros
+ */
+class OpenStatements {
+
+	private static final Logger log = LoggerFactory.getLogger(OpenStatements.class);
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	private Statement[] slots = new Statement[INITIAL_CAPACITY];
+	private int[] free = new int[INITIAL_CAPACITY];
+	private int freeCount;
+	private int used;
+
+	/**
+	 * Add the specified statement.
+	 *
+	 * @return the slot of the statement, to be used for removing it
+	 */
+	synchronized int add(Statement s) {
+		int slot;
+		if (freeCount > 0) {
+			slot = free[--freeCount];
+		} else {
+			if (used == slots.length) {
+				slots = Arrays.copyOf(slots, used * 2);
+				free = Arrays.copyOf(free, used * 2);
+			}
+			slot = used++;
+		}
+		slots[slot] = s;
+		return slot;
+	}
+
+	/**
+	 * Remove the specified statement.
+	 *
+	 * @return {@code false} if the statement was not in the specified slot
+	 *         (because it has been closed by {@link #closeAll()})
+	 */
+	synchronized boolean remove(int slot, Statement s) {
+		if (slot < used && slots[slot] == s) {
+			slots[slot] = null;
+			free[freeCount++] = slot;
+			return true;
+		}
+		return false;
+	}
+
+	synchronized int size() {
+		return used - freeCount;
+	}
+
+	/**
+	 * Close all the open statements.
+	 *
+	 * @return the number of statements that were closed
+	 */
+	int closeAll() {
+		Statement[] open;
+		int count = 0;
+		synchronized (this) {
+			if (used == freeCount) {
+				return 0;
+			}
+			open = new Statement[used - freeCount];
+			for (int i = 0; i < used; i++) {
+				if (slots[i] != null) {
+					open[count++] = slots[i];
+				}
+			}
+			Arrays.fill(slots, 0, used, null);
+			used = 0;
+			freeCount = 0;
+		}
+		for (Statement s : open) {
+			try {
+				s.close();
+			} catch (SQLException e) {
+				log.debug("Could not close statement [" + s + "] left open by the client", e);
+			}
+		}
+		return count;
+	}
+}
@@ -13,15 +13,38 @@ public class PoolConfig implements ConnectionDefaults, Cloneable {
 	private int acquisitionRetries = 10;
 	private Duration connectionTimeout = Duration.minutes(1);
 	private Duration shutdownTimeout = Duration.minutes(1);
+	private boolean threadAffinity = false;
+	private boolean fairQueue = false;
+	private boolean directHandoff = false;
+	private IdleOrder idleOrder = IdleOrder.FIFO;
 	
 	private int minIdle = 1;
 	private int maxIdle = 5;
 	private Duration idleTimeout = Duration.minutes(5);
 	private Duration evictionInterval = Duration.minutes(10);
+	private Duration maxLifetime = Duration.millis(0);
+	private int maxUsesPerConnection = 0;
 	
 	private boolean validateOnBorrow = true;
 	private boolean validateOnReturn = false;
 	private Duration validationTimeout = Duration.seconds(5);
+	private Duration validationBypassWindow = Duration.millis(0);
+	private boolean backgroundValidation = false;
+	private Duration validationInterval = Duration.seconds(30);
+	private boolean asyncReturn = false;
+	private int returnQueueCapacity = 32;
+	private boolean prefill = false;
+	private int maxConcurrentCreations = 0;
+	private Duration leakDetectionThreshold = Duration.millis(0);
+	private int leakTraceSampleRate = 0;
+	private boolean reclaimLeakedConnections = false;
+	private boolean reclaimUnreachableConnections = true;
+	private int statementCacheSize = 0;
+	private boolean adaptiveSizing = false;
+	private int minPoolSize = 1;
+	private int maxPoolSize = 20;
+	private Duration sizingInterval = Duration.seconds(10);
+	private Duration targetBorrowWaitTime = Duration.millis(10);
 	
 	private boolean defaultAutocommit = DEFAULT_AUTOCOMMIT;
 	private TxIsolation defaultIsolation = TxIsolation.UNDEFINED;
@@ -78,6 +101,36 @@ public class PoolConfig implements ConnectionDefaults, Cloneable {
 	public Duration getShutdownTimeout() {
 		return shutdownTimeout;
 	}
+	/**
+	 * Get whether a returned connection gets cached for the returning thread
+	 * so that the thread can borrow it again without going through the shared
+	 * queue of available connections.
+	 */
+	public boolean isThreadAffinity() {
+		return threadAffinity;
+	}
+	/**
+	 * Get whether the threads waiting for a connection are served in the order
+	 * they arrived (first-in-first-out).
+	 */
+	public boolean isFairQueue() {
+		return fairQueue;
+	}
+	/**
+	 * Get whether a returned connection is handed directly to the thread that
+	 * waits the longest for a connection, instead of going back to the pool.
+	 */
+	public boolean isDirectHandoff() {
+		return directHandoff;
+	}
+	/**
+	 * Get the order in which the idle connections get borrowed. It is read
+	 * only when the pool gets created, a reconfiguration of the pool keeps
+	 * the order of the pool.
+	 */
+	public IdleOrder getIdleOrder() {
+		return idleOrder;
+	}
 	
 	/**
 	 * Get the number of idle connection in the pool after the eviction
@@ -106,6 +159,22 @@ public class PoolConfig implements ConnectionDefaults, Cloneable {
 	public Duration getEvictionInterval() {
 		return evictionInterval;
 	}
+	/**
+	 * Get the maximum time a connection is kept open, the connections that get
+	 * older are retired when returned to the pool or by the housekeeper when
+	 * idle. A zero duration (the default) means that there is no limit.
+	 */
+	public Duration getMaxLifetime() {
+		return maxLifetime;
+	}
+	/**
+	 * Get the number of times a connection can be borrowed before it gets
+	 * retired, when returned to the pool, and replaced in the background. Zero
+	 * (the default) means that there is no limit.
+	 */
+	public int getMaxUsesPerConnection() {
+		return maxUsesPerConnection;
+	}
 	
 	/**
 	 * Get whether a connection should be validated each time it gets
@@ -128,6 +197,129 @@ public class PoolConfig implements ConnectionDefaults, Cloneable {
 	public Duration getValidationTimeout() {
 		return validationTimeout;
 	}
+	/**
+	 * Get the amount of time since a connection was last returned to the pool
+	 * during which the connection is not validated on borrow. Zero disables
+	 * the bypass.
+	 */
+	public Duration getValidationBypassWindow() {
+		return validationBypassWindow;
+	}
+	/**
+	 * Get whether the idle connections get validated in the background, at a
+	 * fixed interval, instead of when they are borrowed or returned.
+	 */
+	public boolean isBackgroundValidation() {
+		return backgroundValidation;
+	}
+	/**
+	 * Get how often the idle connections get validated in the background.
+	 */
+	public Duration getValidationInterval() {
+		return validationInterval;
+	}
+	/**
+	 * Get whether the returned connections get reset and validated
+	 * asynchronously, by a pool thread, instead of by the thread that closes
+	 * the connection.
+	 */
+	public boolean isAsyncReturn() {
+		return asyncReturn;
+	}
+	/**
+	 * Get the maximum number of returned connections that can wait for
+	 * asynchronous processing. When the queue is full the connections get
+	 * processed by the thread that closes them.
+	 */
+	public int getReturnQueueCapacity() {
+		return returnQueueCapacity;
+	}
+	/**
+	 * Get whether the pool creates connections in a background thread to keep
+	 * at least min-idle connections available, starting when the pool gets
+	 * initialized.
+	 */
+	public boolean isPrefill() {
+		return prefill;
+	}
+	/**
+	 * Get the maximum number of connections that can be created concurrently.
+	 * The borrowers that exceed the limit wait for the first connection that
+	 * gets created or returned. Zero means no limit.
+	 */
+	public int getMaxConcurrentCreations() {
+		return maxConcurrentCreations;
+	}
+	/**
+	 * Get the amount of time a connection can be borrowed before it is
+	 * reported as leaked. Zero disables the leak detection.
+	 */
+	public Duration getLeakDetectionThreshold() {
+		return leakDetectionThreshold;
+	}
+	/**
+	 * Get for how many borrows the stack trace of the borrower gets captured,
+	 * to be logged if the connection leaks. One captures every borrow, N
+	 * captures one of every N borrows and zero disables the capture.
+	 */
+	public int getLeakTraceSampleRate() {
+		return leakTraceSampleRate;
+	}
+	/**
+	 * Get whether the leaked connections get closed and their permits returned
+	 * to the pool.
+	 */
+	public boolean isReclaimLeakedConnections() {
+		return reclaimLeakedConnections;
+	}
+	/**
+	 * Get whether the connections that become unreachable without getting
+	 * closed are returned to the pool by a background thread.
+	 */
+	public boolean isReclaimUnreachableConnections() {
+		return reclaimUnreachableConnections;
+	}
+	/**
+	 * Get the maximum number of prepared and callable statements cached for
+	 * each connection. Zero disables the statement cache.
+	 */
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+	/**
+	 * Get whether the pool size gets adjusted automatically, between the
+	 * minimum and the maximum pool size, based on the measured load and borrow
+	 * wait times.
+	 */
+	public boolean isAdaptiveSizing() {
+		return adaptiveSizing;
+	}
+	/**
+	 * Get the smallest size of the pool when adaptive sizing is enabled.
+	 */
+	public int getMinPoolSize() {
+		return minPoolSize;
+	}
+	/**
+	 * Get the largest size of the pool when adaptive sizing is enabled.
+	 */
+	public int getMaxPoolSize() {
+		return maxPoolSize;
+	}
+	/**
+	 * Get the interval between the adjustments of the pool size when adaptive
+	 * sizing is enabled.
+	 */
+	public Duration getSizingInterval() {
+		return sizingInterval;
+	}
+	/**
+	 * Get the mean borrow wait time above which adaptive sizing grows the
+	 * pool.
+	 */
+	public Duration getTargetBorrowWaitTime() {
+		return targetBorrowWaitTime;
+	}
 	
 	/**
 	 * Get the default auto-commit.
@@ -172,6 +364,22 @@ public class PoolConfig implements ConnectionDefaults, Cloneable {
 		this.shutdownTimeout = shutdownTimeout;
 	}
 
+	public void setThreadAffinity(boolean threadAffinity) {
+		this.threadAffinity = threadAffinity;
+	}
+
+	public void setFairQueue(boolean fairQueue) {
+		this.fairQueue = fairQueue;
+	}
+
+	public void setDirectHandoff(boolean directHandoff) {
+		this.directHandoff = directHandoff;
+	}
+
+	public void setIdleOrder(IdleOrder idleOrder) {
+		this.idleOrder = idleOrder;
+	}
+
 	public void setMinIdle(int minIdle) {
 		this.minIdle = minIdle;
 	}
@@ -188,6 +396,14 @@ public class PoolConfig implements ConnectionDefaults, Cloneable {
 		this.evictionInterval = evictionInterval;
 	}
 
+	public void setMaxLifetime(Duration maxLifetime) {
+		this.maxLifetime = maxLifetime;
+	}
+
+	public void setMaxUsesPerConnection(int maxUsesPerConnection) {
+		this.maxUsesPerConnection = maxUsesPerConnection;
+	}
+
 	public void setValidateOnBorrow(boolean validateOnBorrow) {
 		this.validateOnBorrow = validateOnBorrow;
 	}
@@ -200,6 +416,74 @@ public class PoolConfig implements ConnectionDefaults, Cloneable {
 		this.validationTimeout = timeout;
 	}
 
+	public void setValidationBypassWindow(Duration validationBypassWindow) {
+		this.validationBypassWindow = validationBypassWindow;
+	}
+
+	public void setBackgroundValidation(boolean backgroundValidation) {
+		this.backgroundValidation = backgroundValidation;
+	}
+
+	public void setValidationInterval(Duration validationInterval) {
+		this.validationInterval = validationInterval;
+	}
+
+	public void setAsyncReturn(boolean asyncReturn) {
+		this.asyncReturn = asyncReturn;
+	}
+
+	public void setReturnQueueCapacity(int returnQueueCapacity) {
+		this.returnQueueCapacity = returnQueueCapacity;
+	}
+
+	public void setPrefill(boolean prefill) {
+		this.prefill = prefill;
+	}
+
+	public void setMaxConcurrentCreations(int maxConcurrentCreations) {
+		this.maxConcurrentCreations = maxConcurrentCreations;
+	}
+
+	public void setLeakDetectionThreshold(Duration leakDetectionThreshold) {
+		this.leakDetectionThreshold = leakDetectionThreshold;
+	}
+
+	public void setLeakTraceSampleRate(int leakTraceSampleRate) {
+		this.leakTraceSampleRate = leakTraceSampleRate;
+	}
+
+	public void setReclaimLeakedConnections(boolean reclaimLeakedConnections) {
+		this.reclaimLeakedConnections = reclaimLeakedConnections;
+	}
+
+	public void setReclaimUnreachableConnections(boolean reclaimUnreachableConnections) {
+		this.reclaimUnreachableConnections = reclaimUnreachableConnections;
+	}
+
+	public void setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+	}
+
+	public void setAdaptiveSizing(boolean adaptiveSizing) {
+		this.adaptiveSizing = adaptiveSizing;
+	}
+
+	public void setMinPoolSize(int minPoolSize) {
+		this.minPoolSize = minPoolSize;
+	}
+
+	public void setMaxPoolSize(int maxPoolSize) {
+		this.maxPoolSize = maxPoolSize;
+	}
+
+	public void setSizingInterval(Duration sizingInterval) {
+		this.sizingInterval = sizingInterval;
+	}
+
+	public void setTargetBorrowWaitTime(Duration targetBorrowWaitTime) {
+		this.targetBorrowWaitTime = targetBorrowWaitTime;
+	}
+
 	public void setDefaultAutocommit(boolean defaultAutocommit) {
 		this.defaultAutocommit = defaultAutocommit;
 	}
@@ -0,0 +1,267 @@
+package com.tzavellas.poolng;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The runtime statistics of a {@link ConnectionPool}.
+ *
+ * <p>The durations are recorded in {@link Histogram}s and the events in
+ * atomic counters, so recording never blocks and never allocates. The
+ * counters updated on every borrow and return, including the count of the
+ * idle connections, are striped so that the borrowers do not contend on
+ * them. All the values, except the number of active and idle connections,
+ * are cumulative since the creation of the pool.
+ *
+ * <p>This class is <b>thread-safe</b>.
+ *
+ * @author spiros
+ */
+public class PoolMetrics {
+
+	final Histogram borrowWaitTime = new Histogram();
+	final Histogram holdTime = new Histogram();
+	final Histogram creationTime = new Histogram();
+	final Histogram validationTime = new Histogram();
+	final Histogram resetTime = new Histogram();
+
+	final AtomicLong timeouts = new AtomicLong();
+	final AtomicLong validationFailures = new AtomicLong();
+	final StripedCounter validationsSkipped = new StripedCounter();
+	final AtomicLong discards = new AtomicLong();
+	final AtomicLong retirements = new AtomicLong();
+	final AtomicLong creationFailures = new AtomicLong();
+	final AtomicLong leaks = new AtomicLong();
+	final AtomicLong reclaims = new AtomicLong();
+	final AtomicLong unreachableReclaims = new AtomicLong();
+	final AtomicLong statementCacheHits = new AtomicLong();
+	final AtomicLong statementCacheMisses = new AtomicLong();
+	final AtomicLong statementCacheEvictions = new AtomicLong();
+	final AtomicLong statementsLeftOpen = new AtomicLong();
+
+	private final StripedCounter borrowed = new StripedCounter();
+	private final StripedCounter returned = new StripedCounter();
+	private final AtomicInteger maxActive = new AtomicInteger();
+
+	// updated by the pool when a connection enters or leaves the idle connections
+	final StripedCounter idle = new StripedCounter();
+
+	/**
+	 * Called when a connection gets borrowed.
+	 *
+	 * @param inUse the number of permits currently acquired from the pool,
+	 *        which the pool already tracks, so that the maximum does not
+	 *        need a shared counter of the active connections.
+	 */
+	void connectionBorrowed(int inUse) {
+		borrowed.increment();
+		for (;;) {
+			int m = maxActive.get();
+			if (inUse <= m || maxActive.compareAndSet(m, inUse)) {
+				return;
+			}
+		}
+	}
+
+	void connectionReturned() {
+		returned.increment();
+	}
+
+	/**
+	 * Get the number of connections that are currently borrowed.
+	 */
+	public int getActiveConnections() {
+		return (int) Math.max(0, borrowed.get() - returned.get());
+	}
+
+	/**
+	 * Get the largest number of connections that were borrowed at the
+	 * same time, including the connections that were being acquired at
+	 * that time.
+	 */
+	public int getMaxActiveConnections() {
+		return maxActive.get();
+	}
+
+	/**
+	 * Get the number of connections that are currently available in the pool.
+	 */
+	public int getIdleConnections() {
+		return (int) Math.max(0, idle.get());
+	}
+
+	/**
+	 * Get the number of open connections (created and not yet discarded).
+	 */
+	public long getTotalConnections() {
+		return getCreations() - getDiscards();
+	}
+
+	/**
+	 * Get the time that the borrowers waited to get a connection from the
+	 * pool, including the time spent creating and validating it.
+	 */
+	public Histogram getBorrowWaitTime() {
+		return borrowWaitTime;
+	}
+
+	/**
+	 * Get the time that the borrowed connections were held before they
+	 * were returned to the pool.
+	 */
+	public Histogram getHoldTime() {
+		return holdTime;
+	}
+
+	/**
+	 * Get the time spent creating new connections.
+	 */
+	public Histogram getCreationTime() {
+		return creationTime;
+	}
+
+	/**
+	 * Get the time spent validating connections.
+	 */
+	public Histogram getValidationTime() {
+		return validationTime;
+	}
+
+	/**
+	 * Get the time spent resetting the returned connections.
+	 */
+	public Histogram getResetTime() {
+		return resetTime;
+	}
+
+	/**
+	 * Get the number of connections borrowed from the pool.
+	 */
+	public long getBorrows() {
+		return borrowWaitTime.getCount();
+	}
+
+	/**
+	 * Get the number of borrowers that timed-out waiting for a connection.
+	 */
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	/**
+	 * Get the number of connections created by the pool.
+	 */
+	public long getCreations() {
+		return creationTime.getCount();
+	}
+
+	/**
+	 * Get the number of failed attempts to create a connection.
+	 */
+	public long getCreationFailures() {
+		return creationFailures.get();
+	}
+
+	/**
+	 * Get the number of connection validations performed by the pool.
+	 */
+	public long getValidations() {
+		return validationTime.getCount();
+	}
+
+	/**
+	 * Get the number of validations that found the connection invalid.
+	 */
+	public long getValidationFailures() {
+		return validationFailures.get();
+	}
+
+	/**
+	 * Get the number of on-borrow validations skipped because the connection
+	 * was returned to the pool within the validation bypass window.
+	 *
+	 * @see PoolConfig#getValidationBypassWindow()
+	 */
+	public long getValidationsSkipped() {
+		return validationsSkipped.get();
+	}
+
+	/**
+	 * Get the number of connections that were closed and removed from the
+	 * pool (because they were invalid, idle or the pool was shrunk).
+	 */
+	public long getDiscards() {
+		return discards.get();
+	}
+
+	/**
+	 * Get the number of connections that were discarded because they reached
+	 * their maximum lifetime or their maximum number of uses.
+	 *
+	 * @see PoolConfig#getMaxLifetime()
+	 * @see PoolConfig#getMaxUsesPerConnection()
+	 */
+	public long getRetirements() {
+		return retirements.get();
+	}
+
+	/**
+	 * Get the number of connections reported as leaked.
+	 *
+	 * @see PoolConfig#getLeakDetectionThreshold()
+	 */
+	public long getLeaks() {
+		return leaks.get();
+	}
+
+	/**
+	 * Get the number of leaked connections that were reclaimed by the pool.
+	 *
+	 * @see PoolConfig#isReclaimLeakedConnections()
+	 */
+	public long getReclaims() {
+		return reclaims.get();
+	}
+
+	/**
+	 * Get the number of connections that were returned to the pool because
+	 * they became unreachable without getting closed.
+	 *
+	 * @see PoolConfig#isReclaimUnreachableConnections()
+	 */
+	public long getUnreachableReclaims() {
+		return unreachableReclaims.get();
+	}
+
+	/**
+	 * Get the number of prepared statements found in the statement cache.
+	 *
+	 * @see PoolConfig#getStatementCacheSize()
+	 */
+	public long getStatementCacheHits() {
+		return statementCacheHits.get();
+	}
+
+	/**
+	 * Get the number of prepared statements not found in the statement cache.
+	 */
+	public long getStatementCacheMisses() {
+		return statementCacheMisses.get();
+	}
+
+	/**
+	 * Get the number of statements closed because the statement cache
+	 * was full.
+	 */
+	public long getStatementCacheEvictions() {
+		return statementCacheEvictions.get();
+	}
+
+	/**
+	 * Get the number of statements that the clients left open and were
+	 * closed by the pool when the connection was returned.
+	 */
+	public long getStatementsLeftOpen() {
+		return statementsLeftOpen.get();
+	}
+}
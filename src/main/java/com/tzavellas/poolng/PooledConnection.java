@@ -8,6 +8,7 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.NClob;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLClientInfoException;
 import java.sql.SQLException;
 import java.sql.SQLWarning;
@@ -21,6 +22,23 @@ import java.util.Properties;
 /**
  * A {@code java.sql.Connection} subclass to be used by the {@code ConnectionPool}.
  * 
+ * <p>The auto-commit, read-only, transaction isolation and catalog setters record
+ * the new value in the {@code ConnectionHolder}, so that the pool knows which
+ * defaults need to be re-applied. Changes made by executing SQL statements
+ * (such as {@code SET TRANSACTION ISOLATION LEVEL}) are not tracked.
+ * 
+ * <p>The statements are wrapped (see {@link StatementHandler}) so that the
+ * {@code ConnectionHolder} knows whether a transaction might be active and
+ * the pool can avoid rolling back connections on return.
+ * 
+ * <p>If the holder has a {@link StatementCache}, the prepared and callable
+ * statements are taken from the cache and go back to it when closed.
+ * 
+ * <p>A {@code PooledConnection} is valid for a single <i>lease</i> of the
+ * {@code ConnectionHolder}. It appears closed after {@code close()} or after
+ * the pool reclaims the connection as leaked, and calling {@code close()}
+ * more than once returns the connection to the pool only once.
+ * 
  * <p>If the underline {@code java.sql.Connection} is thread-safe then also instances
  * of this class are thread-safe.
  * 
@@ -31,6 +49,7 @@ class PooledConnection implements Connection {
 	private final Connection target;
 	private final ConnectionHolder holder;
 	private final ConnectionPool pool;
+	private final int lease;
 	private volatile boolean closed = false;
 	
 	/**
@@ -43,6 +62,7 @@ class PooledConnection implements Connection {
 		holder = ch;
 		target = ch.getConnection();
 		pool = cp;
+		lease = ch.getLease();
 	}
 	
 	
@@ -55,8 +75,13 @@ class PooledConnection implements Connection {
 	 */
 	@Override
 	public void close() throws SQLException {
+		if (closed) {
+			return;
+		}
 		closed = true;
-		pool.returnConnection(holder);
+		if (holder.endLease(lease)) {
+			pool.returnConnection(holder);
+		}
 	}
 	
 	/**
@@ -64,7 +89,7 @@ class PooledConnection implements Connection {
 	 */
 	@Override
 	public boolean isClosed() throws SQLException {
-		return closed;
+		return isClosedOrReclaimed();
 	}
 	
 	/**
@@ -72,7 +97,7 @@ class PooledConnection implements Connection {
 	 */
 	@Override
 	public boolean isValid(int timeout) throws SQLException {
-		if (closed) {
+		if (isClosedOrReclaimed()) {
 			return false;
 		}
 		return target.isValid(timeout);
@@ -80,14 +105,42 @@ class PooledConnection implements Connection {
 	
 	// -----------------------------------------------------------------------
 	
+	private PreparedStatement prepareStatement(StatementCache.Key key) throws SQLException {
+		StatementCache cache = holder.getStatementCache();
+		if (cache == null) {
+			return StatementHandler.wrap(key.prepare(target), this, holder);
+		}
+		PreparedStatement ps = cache.take(key);
+		if (ps == null) {
+			ps = key.prepare(target);
+		}
+		return StatementHandler.wrap(ps, this, holder, cache, key);
+	}
+	
+	private CallableStatement prepareCall(StatementCache.Key key) throws SQLException {
+		StatementCache cache = holder.getStatementCache();
+		if (cache == null) {
+			return StatementHandler.wrap((CallableStatement) key.prepare(target), this, holder);
+		}
+		CallableStatement cs = (CallableStatement) cache.take(key);
+		if (cs == null) {
+			cs = (CallableStatement) key.prepare(target);
+		}
+		return StatementHandler.wrap(cs, this, holder, cache, key);
+	}
+	
+	private boolean isClosedOrReclaimed() {
+		return closed || holder.getLease() != lease;
+	}
+	
 	protected void assertIsOpen() throws SQLException {
-		if (closed) {
+		if (isClosedOrReclaimed()) {
 			throw  new SQLException("Could not execute operation on a closed JDBC connection!");
 		}
 	}
 	
 	protected void assertClosedClientInfo() throws SQLClientInfoException {
-		if (closed) 
+		if (isClosedOrReclaimed()) 
 			throw new SQLClientInfoException();
 	}
 	
@@ -100,6 +153,7 @@ class PooledConnection implements Connection {
 	public void clearWarnings() throws SQLException {
 		assertIsOpen();
 		target.clearWarnings();
+		holder.setWarnings(false);
 	}
 	
 	/**
@@ -108,6 +162,7 @@ class PooledConnection implements Connection {
 	public void commit() throws SQLException {
 		assertIsOpen();
 		target.commit();
+		holder.transactionEnded();
 	}
 
 	/**
@@ -123,6 +178,7 @@ class PooledConnection implements Connection {
 	 */
 	public Blob createBlob() throws SQLException {
 		assertIsOpen();
+		holder.transactionStarted();
 		return target.createBlob();
 	}
 
@@ -131,6 +187,7 @@ class PooledConnection implements Connection {
 	 */
 	public Clob createClob() throws SQLException {
 		assertIsOpen();
+		holder.transactionStarted();
 		return target.createClob();
 	}
 
@@ -139,6 +196,7 @@ class PooledConnection implements Connection {
 	 */
 	public NClob createNClob() throws SQLException {
 		assertIsOpen();
+		holder.transactionStarted();
 		return target.createNClob();
 	}
 
@@ -147,6 +205,7 @@ class PooledConnection implements Connection {
 	 */
 	public SQLXML createSQLXML() throws SQLException {
 		assertIsOpen();
+		holder.transactionStarted();
 		return target.createSQLXML();
 	}
 
@@ -155,7 +214,7 @@ class PooledConnection implements Connection {
 	 */
 	public Statement createStatement() throws SQLException {
 		assertIsOpen();
-		return target.createStatement();
+		return StatementHandler.wrap(target.createStatement(), this, holder);
 	}
 
 	/**
@@ -163,7 +222,7 @@ class PooledConnection implements Connection {
 	 */
 	public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
 		assertIsOpen();
-		return target.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
+		return StatementHandler.wrap(target.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability), this, holder);
 	}
 
 	/**
@@ -171,7 +230,7 @@ class PooledConnection implements Connection {
 	 */
 	public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
 		assertIsOpen();
-		return target.createStatement(resultSetType, resultSetConcurrency);
+		return StatementHandler.wrap(target.createStatement(resultSetType, resultSetConcurrency), this, holder);
 	}
 
 	/**
@@ -227,6 +286,7 @@ class PooledConnection implements Connection {
 	 */
 	public DatabaseMetaData getMetaData() throws SQLException {
 		assertIsOpen();
+		holder.transactionStarted(); // meta-data may get queried in a transaction
 		return target.getMetaData();
 	}
 
@@ -251,7 +311,11 @@ class PooledConnection implements Connection {
 	 */
 	public SQLWarning getWarnings() throws SQLException {
 		assertIsOpen();
-		return target.getWarnings();
+		SQLWarning warnings = target.getWarnings();
+		if (warnings != null) {
+			holder.setWarnings(true);
+		}
+		return warnings;
 	}
 
 	/**
@@ -275,7 +339,7 @@ class PooledConnection implements Connection {
 	 */
 	public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
 		assertIsOpen();
-		return target.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+		return prepareCall(new StatementCache.Key(sql, true, resultSetType, resultSetConcurrency, resultSetHoldability));
 	}
 
 	/**
@@ -283,7 +347,7 @@ class PooledConnection implements Connection {
 	 */
 	public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
 		assertIsOpen();
-		return target.prepareCall(sql, resultSetType, resultSetConcurrency);
+		return prepareCall(new StatementCache.Key(sql, true, resultSetType, resultSetConcurrency, StatementCache.Key.DEFAULT_HOLDABILITY));
 	}
 
 	/**
@@ -291,7 +355,10 @@ class PooledConnection implements Connection {
 	 */
 	public CallableStatement prepareCall(String sql) throws SQLException {
 		assertIsOpen();
-		return target.prepareCall(sql);
+		if (holder.getStatementCache() == null) {
+			return StatementHandler.wrap(target.prepareCall(sql), this, holder);
+		}
+		return prepareCall(new StatementCache.Key(sql, true, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, StatementCache.Key.DEFAULT_HOLDABILITY));
 	}
 
 	/**
@@ -299,7 +366,7 @@ class PooledConnection implements Connection {
 	 */
 	public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
 		assertIsOpen();
-		return target.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+		return prepareStatement(new StatementCache.Key(sql, false, resultSetType, resultSetConcurrency, resultSetHoldability));
 	}
 
 	/**
@@ -307,7 +374,7 @@ class PooledConnection implements Connection {
 	 */
 	public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
 		assertIsOpen();
-		return target.prepareStatement(sql, resultSetType, resultSetConcurrency);
+		return prepareStatement(new StatementCache.Key(sql, false, resultSetType, resultSetConcurrency, StatementCache.Key.DEFAULT_HOLDABILITY));
 	}
 
 	/**
@@ -315,7 +382,7 @@ class PooledConnection implements Connection {
 	 */
 	public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
 		assertIsOpen();
-		return target.prepareStatement(sql, autoGeneratedKeys);
+		return StatementHandler.wrap(target.prepareStatement(sql, autoGeneratedKeys), this, holder);
 	}
 
 	/**
@@ -323,7 +390,7 @@ class PooledConnection implements Connection {
 	 */
 	public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
 		assertIsOpen();
-		return target.prepareStatement(sql, columnIndexes);
+		return StatementHandler.wrap(target.prepareStatement(sql, columnIndexes), this, holder);
 	}
 
 	/**
@@ -331,7 +398,7 @@ class PooledConnection implements Connection {
 	 */
 	public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
 		assertIsOpen();
-		return target.prepareStatement(sql, columnNames);
+		return StatementHandler.wrap(target.prepareStatement(sql, columnNames), this, holder);
 	}
 
 	/**
@@ -339,7 +406,10 @@ class PooledConnection implements Connection {
 	 */
 	public PreparedStatement prepareStatement(String sql) throws SQLException {
 		assertIsOpen();
-		return target.prepareStatement(sql);
+		if (holder.getStatementCache() == null) {
+			return StatementHandler.wrap(target.prepareStatement(sql), this, holder);
+		}
+		return prepareStatement(new StatementCache.Key(sql, false, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, StatementCache.Key.DEFAULT_HOLDABILITY));
 	}
 
 	/**
@@ -356,6 +426,7 @@ class PooledConnection implements Connection {
 	public void rollback() throws SQLException {
 		assertIsOpen();
 		target.rollback();
+		holder.transactionEnded();
 	}
 
 	/**
@@ -371,7 +442,12 @@ class PooledConnection implements Connection {
 	 */
 	public void setAutoCommit(boolean autoCommit) throws SQLException {
 		assertIsOpen();
+		holder.setAutoCommit(null);
 		target.setAutoCommit(autoCommit);
+		holder.setAutoCommit(autoCommit);
+		if (autoCommit) {
+			holder.transactionEnded(); // setting auto-commit commits
+		}
 	}
 
 	/**
@@ -379,7 +455,9 @@ class PooledConnection implements Connection {
 	 */
 	public void setCatalog(String catalog) throws SQLException {
 		assertIsOpen();
+		holder.setCatalog(null);
 		target.setCatalog(catalog);
+		holder.setCatalog(catalog);
 	}
 
 	/**
@@ -395,7 +473,9 @@ class PooledConnection implements Connection {
 	 */
 	public void setReadOnly(boolean readOnly) throws SQLException {
 		assertIsOpen();
+		holder.setReadOnly(null);
 		target.setReadOnly(readOnly);
+		holder.setReadOnly(readOnly);
 	}
 
 	/**
@@ -403,6 +483,7 @@ class PooledConnection implements Connection {
 	 */
 	public Savepoint setSavepoint() throws SQLException {
 		assertIsOpen();
+		holder.transactionStarted();
 		return target.setSavepoint();
 	}
 
@@ -411,6 +492,7 @@ class PooledConnection implements Connection {
 	 */
 	public Savepoint setSavepoint(String name) throws SQLException {
 		assertIsOpen();
+		holder.transactionStarted();
 		return target.setSavepoint(name);
 	}
 
@@ -419,7 +501,9 @@ class PooledConnection implements Connection {
 	 */
 	public void setTransactionIsolation(int level) throws SQLException {
 		assertIsOpen();
+		holder.setTransactionIsolation(null);
 		target.setTransactionIsolation(level);
+		holder.setTransactionIsolation(level);
 	}
 
 	/**
@@ -469,6 +553,9 @@ class PooledConnection implements Connection {
 	 */
 	public <T> T unwrap(Class<T> iface) throws SQLException {
 		assertIsOpen();
+		// we cannot track the unwrapped object
+		holder.setTransactionActive(null);
+		holder.clearState();
 		return target.unwrap(iface);
 	}
 }
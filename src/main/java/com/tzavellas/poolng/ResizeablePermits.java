@@ -0,0 +1,479 @@
+package com.tzavellas.poolng;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Counts the connections that can be borrowed from the pool.
+ *
+ * <p>The permits are kept in an atomic counter and the threads that wait for
+ * a permit are kept in a queue. When a permit gets released and there are
+ * waiting threads, the permit is handed directly to the first waiting thread
+ * instead of going back to the counter.
+ *
+ * <p>The number of permits can change instantly. When growing the new permits
+ * are handed to the waiting threads or added to the counter. When shrinking
+ * the counter may become negative, in this case the permits that get returned
+ * are retired, by {@link #release()} or {@link #tryRetire()}, until the counter
+ * becomes zero.
+ *
+ * <p>In <i>fair</i> mode a thread never takes a permit from the counter while
+ * there are other threads waiting, in non-fair mode a thread tries to take a
+ * permit from the counter before it queues.
+ *
+ * <p>A thread that waits using {@link #tryAcquireItem(long, TimeUnit)} can
+ * also receive an object together with its permit, when the releasing thread
+ * hands the object off using {@link #handOff(Object)}. The pool uses this to
+ * give a returned connection directly to the longest waiting borrower.
+ *
+ * <p>A permit can also be requested without blocking the calling thread using
+ * {@link #acquireAsync(PermitCallback)}. The request waits in the same queue
+ * as the waiting threads and its callback gets invoked by the thread that
+ * grants the permit.
+ *
+ * <p>This class is <b>thread-safe</b>.
+ *
+ * @author spiros
+ */
+class ResizeablePermits {
+
+	private static final int WAITING = 0;
+	private static final int GRANTED = 1;
+	private static final int CANCELLED = 2;
+	private static final int HANDED_OFF = 3;
+	private static final int RESERVED = 4; // claimed by a hand-off, the item is not yet published
+
+	/**
+	 * Returned from {@link #tryAcquireItem(long, TimeUnit)} when a permit was
+	 * acquired without an item.
+	 */
+	static final Object NO_ITEM = new Object();
+
+	/**
+	 * Gets notified when a permit requested with {@link ResizeablePermits#acquireAsync(PermitCallback)}
+	 * gets acquired. The callback is invoked by the thread that grants the
+	 * permit, so it must be short and must not throw exceptions.
+	 */
+	interface PermitCallback {
+		/**
+		 * @param item the item handed off with the permit or {@link ResizeablePermits#NO_ITEM}
+		 */
+		void acquired(Object item);
+	}
+
+	private final AtomicInteger permits;
+	private final AtomicInteger size;
+	private final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<Waiter>();
+	private final AtomicInteger waiting = new AtomicInteger();
+	private volatile boolean fair;
+
+	public ResizeablePermits(int permits) {
+		this(permits, false);
+	}
+
+	public ResizeablePermits(int permits, boolean fair) {
+		this.permits = new AtomicInteger(permits);
+		this.size = new AtomicInteger(permits);
+		this.fair = fair;
+	}
+
+	/**
+	 * The total number of permits (available and acquired).
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * The number of available permits.
+	 *
+	 * <p>Can be negative after a shrink, while the acquired permits are
+	 * more than the size.
+	 */
+	public int availablePermits() {
+		return permits.get();
+	}
+
+	/**
+	 * The number of threads waiting for a permit.
+	 */
+	public int getQueueLength() {
+		return waiting.get();
+	}
+
+	public boolean isFair() {
+		return fair;
+	}
+
+	public void setFair(boolean fair) {
+		this.fair = fair;
+	}
+
+	// -----------------------------------------------------------------------
+
+	/**
+	 * Acquire a permit only if one is available at the time of invocation.
+	 */
+	public boolean tryAcquire() {
+		if (fair && firstWaiting() != null) {
+			return false;
+		}
+		return takeFromCounter();
+	}
+
+	/**
+	 * Acquire a permit, waiting if necessary up to the specified time.
+	 *
+	 * @return {@code true} if a permit was acquired and {@code false} if
+	 *         the waiting time elapsed.
+	 */
+	public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+		return acquire(timeout, unit, false) != null;
+	}
+
+	/**
+	 * Acquire a permit, waiting if necessary up to the specified time, and
+	 * accept an item handed off together with the permit.
+	 *
+	 * @return the item that was handed off, {@link #NO_ITEM} if a permit was
+	 *         acquired without an item or {@code null} if the waiting time
+	 *         elapsed.
+	 */
+	public Object tryAcquireItem(long timeout, TimeUnit unit) throws InterruptedException {
+		return acquire(timeout, unit, true);
+	}
+
+	private Object acquire(long timeout, TimeUnit unit, boolean acceptsItem) throws InterruptedException {
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+		if (tryAcquire()) {
+			return NO_ITEM;
+		}
+		long nanos = unit.toNanos(timeout);
+		if (nanos <= 0) {
+			return null;
+		}
+		long deadline = System.nanoTime() + nanos;
+		Waiter w = new Waiter(Thread.currentThread(), acceptsItem, null);
+		waiting.incrementAndGet();
+		try {
+			waiters.add(w);
+			if (!await(w, deadline)) {
+				return null;
+			}
+			return awaitHandOff(w) == HANDED_OFF ? w.item : NO_ITEM;
+		} finally {
+			waiting.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Acquire a permit without blocking. The specified callback gets invoked,
+	 * by the calling thread if a permit is available or else by the thread
+	 * that grants the permit. The request accepts handed off items.
+	 *
+	 * @return a handle for cancelling the request using {@link #cancelAsync(Object)}
+	 */
+	public Object acquireAsync(PermitCallback callback) {
+		if (tryAcquire()) {
+			callback.acquired(NO_ITEM);
+			return null;
+		}
+		Waiter w = new Waiter(null, true, callback);
+		waiting.incrementAndGet();
+		waiters.add(w);
+		// a permit might have reached the counter after we failed to get one
+		if ((!fair || firstWaiting() == w) && takeFromCounter()) {
+			if (w.compareAndSet(WAITING, GRANTED)) {
+				waiters.remove(w);
+				wake(w);
+			} else {
+				release();
+			}
+		}
+		return w;
+	}
+
+	/**
+	 * Cancel a request made using {@link #acquireAsync(PermitCallback)}.
+	 *
+	 * @return {@code true} if the request was cancelled, {@code false} if it
+	 *         had already acquired a permit.
+	 */
+	public boolean cancelAsync(Object handle) {
+		if (handle != null && cancel((Waiter) handle)) {
+			waiting.decrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Acquire a permit, waiting until one is available.
+	 */
+	public void acquire() throws InterruptedException {
+		while (!tryAcquire(Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+	}
+
+	/**
+	 * Release a permit, handing it to the first waiting thread if any. After
+	 * a shrink the permit gets retired instead, until the acquired permits
+	 * are no more than the size.
+	 */
+	public void release() {
+		if (tryRetire()) {
+			return;
+		}
+		Waiter w;
+		while ((w = waiters.poll()) != null) {
+			if (w.compareAndSet(WAITING, GRANTED)) {
+				wake(w);
+				return;
+			}
+		}
+		permits.incrementAndGet();
+		// a thread might have queued after we found the queue empty
+		signalFirstWaiting();
+	}
+
+	/**
+	 * Hand the specified item, together with a permit, to the first waiting
+	 * thread if that thread accepts items.
+	 *
+	 * @return {@code true} if the item and the permit were handed off, else
+	 *         {@code false} and the caller still holds the permit.
+	 */
+	public boolean handOff(Object item) {
+		for (;;) {
+			Waiter w = firstWaiting();
+			if (w == null || !w.acceptsItem) {
+				return false;
+			}
+			// own the waiter before publishing the item
+			if (w.compareAndSet(WAITING, RESERVED)) {
+				w.item = item;
+				w.set(HANDED_OFF);
+				waiters.remove(w);
+				wake(w);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Release a permit only if the acquired permits are more than the size
+	 * of this object (because of a shrink). The released permit does not
+	 * become available to other threads.
+	 *
+	 * @return {@code true} if the permit got retired, else {@code false}.
+	 */
+	public boolean tryRetire() {
+		for (;;) {
+			int p = permits.get();
+			if (p >= 0) {
+				return false;
+			}
+			if (permits.compareAndSet(p, p + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Acquire all the permits that are immediately available.
+	 *
+	 * @return the number of permits acquired
+	 */
+	public int drainPermits() {
+		for (;;) {
+			int p = permits.get();
+			if (p <= 0) {
+				return 0;
+			}
+			if (permits.compareAndSet(p, 0)) {
+				return p;
+			}
+		}
+	}
+
+	/**
+	 * Change the number of permits.
+	 *
+	 * <p>This method never blocks. If the new size is smaller than the number
+	 * of acquired permits then the extra permits get retired when they are
+	 * returned.
+	 *
+	 * @param newSize the new number of permits, a negative value is ignored.
+	 * @return the size after the operation
+	 */
+	public int resize(int newSize) {
+		if (newSize < 0) {
+			return size.get();
+		}
+		int delta = newSize - size.getAndSet(newSize);
+		if (delta < 0) {
+			permits.addAndGet(delta);
+		} else {
+			for (int i = 0; i < delta; i++) {
+				growByOne();
+			}
+		}
+		return newSize;
+	}
+
+	/**
+	 * Add a permit: cancel a pending retirement if the counter is negative,
+	 * else release the permit to the waiters or the counter.
+	 */
+	private void growByOne() {
+		for (;;) {
+			int p = permits.get();
+			if (p >= 0) {
+				release();
+				return;
+			}
+			if (permits.compareAndSet(p, p + 1)) {
+				return;
+			}
+		}
+	}
+
+	// -----------------------------------------------------------------------
+
+	private boolean await(Waiter w, long deadline) throws InterruptedException {
+		for (;;) {
+			int state = w.get();
+			if (state == GRANTED || state == HANDED_OFF) {
+				return true;
+			}
+			if (state == RESERVED) {
+				Thread.yield(); // the item gets published right away
+				continue;
+			}
+			// a permit might have reached the counter after we failed to get one
+			if ((!fair || firstWaiting() == w) && takeFromCounter()) {
+				if (!w.compareAndSet(WAITING, CANCELLED)) {
+					release(); // got a permit handed to us at the same time
+				}
+				return true;
+			}
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return !cancel(w);
+			}
+			LockSupport.parkNanos(this, remaining);
+			if (Thread.interrupted()) {
+				if (cancel(w)) {
+					throw new InterruptedException();
+				}
+				Thread.currentThread().interrupt();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Wait until a hand-off that has claimed the specified waiter publishes
+	 * its item.
+	 *
+	 * @return the final state of the waiter
+	 */
+	private int awaitHandOff(Waiter w) {
+		int state;
+		while ((state = w.get()) == RESERVED) {
+			Thread.yield();
+		}
+		return state;
+	}
+
+	private boolean takeFromCounter() {
+		for (;;) {
+			int p = permits.get();
+			if (p <= 0) {
+				return false;
+			}
+			if (permits.compareAndSet(p, p - 1)) {
+				return true;
+			}
+		}
+	}
+
+	private boolean cancel(Waiter w) {
+		if (w.compareAndSet(WAITING, CANCELLED)) {
+			waiters.remove(w);
+			// we might be the first waiter of a fair queue, let the next one try
+			if (permits.get() > 0) {
+				signalFirstWaiting();
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private void signalFirstWaiting() {
+		Waiter w = firstWaiting();
+		if (w == null) {
+			return;
+		}
+		if (w.thread != null) {
+			LockSupport.unpark(w.thread);
+			return;
+		}
+		// no thread waits for an async request, take the permit on its behalf
+		if (takeFromCounter()) {
+			if (w.compareAndSet(WAITING, GRANTED)) {
+				waiters.remove(w);
+				wake(w);
+			} else {
+				release();
+			}
+		}
+	}
+
+	/**
+	 * Notify a waiter that has been granted a permit.
+	 */
+	private void wake(Waiter w) {
+		if (w.thread != null) {
+			LockSupport.unpark(w.thread);
+			return;
+		}
+		waiting.decrementAndGet();
+		w.callback.acquired(w.get() == HANDED_OFF ? w.item : NO_ITEM);
+	}
+
+	private Waiter firstWaiting() {
+		for (;;) {
+			Waiter w = waiters.peek();
+			if (w == null || w.get() == WAITING) {
+				return w;
+			}
+			waiters.remove(w);
+		}
+	}
+
+	/**
+	 * A thread waiting for a permit. The state (WAITING, GRANTED, CANCELLED,
+	 * RESERVED or HANDED_OFF) is kept in the inherited integer to avoid an
+	 * allocation per wait. A hand-off moves the state to RESERVED before it
+	 * writes the item, so the item is written only by the owner of the waiter
+	 * and is read only in the HANDED_OFF state. An async
+	 * request has a callback instead of a thread.
+	 */
+	@SuppressWarnings("serial")
+	private static final class Waiter extends AtomicInteger {
+		final Thread thread;
+		final boolean acceptsItem;
+		final PermitCallback callback;
+		volatile Object item;
+		Waiter(Thread t, boolean acceptsItem, PermitCallback callback) {
+			super(WAITING);
+			thread = t;
+			this.acceptsItem = acceptsItem;
+			this.callback = callback;
+		}
+	}
+}
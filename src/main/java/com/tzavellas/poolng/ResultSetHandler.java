@@ -0,0 +1,110 @@
+package com.tzavellas.poolng;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An {@code InvocationHandler} for the dynamic proxies that wrap the result
+ * sets of the statements created by a {@link PooledConnection}.
+ *
+ * <p>The handler returns the statement proxy (instead of the physical
+ * statement) from {@code ResultSet.getStatement()}, so that the clients
+ * cannot reach the physical connection. Unwrapping the result set makes the
+ * state of the connection unknown, like {@code PooledConnection.unwrap}, and
+ * getting warnings from the result set marks the connection as having
+ * warnings.
+ *
+ * <p>This class is <b>thread-safe</b>.
+ *
+ * @author spiros
+ */
+class ResultSetHandler implements InvocationHandler {
+
+	private static final Constructor<?> RESULT_SET_PROXY;
+	static {
+		try {
+			RESULT_SET_PROXY = Proxy.getProxyClass(ResultSetHandler.class.getClassLoader(), ResultSet.class)
+									.getConstructor(InvocationHandler.class);
+		} catch (NoSuchMethodException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	// the actions of the methods, a method without an action gets delegated
+	private static final int GET_STATEMENT = 1;
+	private static final int UNWRAP = 2;
+	private static final int GET_WARNINGS = 3;
+	private static final Map<Method, Integer> ACTIONS = new HashMap<Method, Integer>();
+	static {
+		for (Method m : ResultSet.class.getMethods()) {
+			if (m.getName().equals("getStatement")) {
+				ACTIONS.put(m, GET_STATEMENT);
+			} else if (m.getName().equals("unwrap")) {
+				ACTIONS.put(m, UNWRAP);
+			} else if (m.getName().equals("getWarnings")) {
+				ACTIONS.put(m, GET_WARNINGS);
+			}
+		}
+	}
+
+	private final ResultSet target;
+	private final Statement statement;
+	private final ConnectionHolder holder;
+
+	private ResultSetHandler(ResultSet rs, Statement s, ConnectionHolder ch) {
+		target = rs;
+		statement = s;
+		holder = ch;
+	}
+
+	static ResultSet wrap(ResultSet rs, Statement s, ConnectionHolder ch) {
+		try {
+			return (ResultSet) RESULT_SET_PROXY.newInstance(new ResultSetHandler(rs, s, ch));
+		} catch (Exception e) {
+			throw new IllegalStateException("Could not create result set proxy", e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		String name = method.getName();
+		if (method.getDeclaringClass() == Object.class) {
+			if (name.equals("equals")) {
+				return proxy == args[0];
+			}
+			if (name.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			}
+			return "Pooled result set: [" + target + "]";
+		}
+		Integer a = ACTIONS.get(method);
+		int action = a == null ? 0 : a;
+		if (action == GET_STATEMENT) {
+			return statement;
+		}
+		if (action == UNWRAP) {
+			// we cannot track the unwrapped object
+			holder.setTransactionActive(null);
+			holder.clearState();
+		}
+		Object result;
+		try {
+			result = method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+		if (result != null && action == GET_WARNINGS) {
+			holder.setWarnings(true);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,205 @@
+package com.tzavellas.poolng;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A LRU cache of the prepared and callable statements of a physical connection.
+ *
+ * <p>A statement is taken out of the cache while it is used, so two clients of
+ * the same connection never share a statement, and goes back to the cache
+ * when the client closes it. When the cache is full the least recently used
+ * statement gets closed. Statements are never closed while holding the lock
+ * of the cache.
+ *
+ * <p>This class is <b>thread-safe</b>.
+ *
+ * @author spiros
+ */
+class StatementCache {
+
+	private static final Logger log = LoggerFactory.getLogger(StatementCache.class);
+
+	private final int capacity;
+	private final PoolMetrics metrics;
+	private final LinkedHashMap<Key, PreparedStatement> statements;
+	private final ReentrantLock lock = new ReentrantLock();
+	
+	// the statement evicted by the last put, guarded by the lock
+	private PreparedStatement evicted;
+
+	StatementCache(int capacity, PoolMetrics metrics) {
+		this.capacity = capacity;
+		this.metrics = metrics;
+		statements = new LinkedHashMap<Key, PreparedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, PreparedStatement> eldest) {
+				if (size() > StatementCache.this.capacity) {
+					StatementCache.this.metrics.statementCacheEvictions.incrementAndGet();
+					evicted = eldest.getValue();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	int capacity() {
+		return capacity;
+	}
+
+	int size() {
+		lock.lock();
+		try {
+			return statements.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Take the statement for the specified key out of the cache.
+	 *
+	 * @return the statement or {@code null} if it is not cached
+	 */
+	PreparedStatement take(Key key) {
+		PreparedStatement ps;
+		lock.lock();
+		try {
+			ps = statements.remove(key);
+		} finally {
+			lock.unlock();
+		}
+		if (ps == null) {
+			metrics.statementCacheMisses.incrementAndGet();
+		} else {
+			metrics.statementCacheHits.incrementAndGet();
+		}
+		return ps;
+	}
+
+	/**
+	 * Put a statement, closed by the client, back in the cache. The statement
+	 * gets closed if its parameters cannot be cleared or if another statement
+	 * with the same key is already cached.
+	 */
+	void release(Key key, PreparedStatement ps) {
+		try {
+			ps.clearParameters();
+			ps.clearWarnings();
+		} catch (SQLException e) {
+			close(ps);
+			return;
+		}
+		PreparedStatement toClose = ps;
+		lock.lock();
+		try {
+			if (!statements.containsKey(key)) {
+				statements.put(key, ps);
+				toClose = evicted;
+				evicted = null;
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (toClose != null) {
+			close(toClose);
+		}
+	}
+
+	/**
+	 * Close all the cached statements.
+	 */
+	void clear() {
+		List<PreparedStatement> cached;
+		lock.lock();
+		try {
+			cached = new ArrayList<PreparedStatement>(statements.values());
+			statements.clear();
+		} finally {
+			lock.unlock();
+		}
+		for (PreparedStatement ps : cached) {
+			close(ps);
+		}
+	}
+
+	private static void close(PreparedStatement ps) {
+		try {
+			ps.close();
+		} catch (SQLException e) {
+			log.debug("Could not close cached statement [" + ps + "]", e);
+		}
+	}
+
+	// -----------------------------------------------------------------------
+
+	/**
+	 * The key of a cached statement: the SQL, whether it is a callable
+	 * statement and the type, concurrency and holdability of its result sets.
+	 */
+	static final class Key {
+
+		static final int DEFAULT_HOLDABILITY = -1;
+
+		private final String sql;
+		private final boolean callable;
+		private final int type;
+		private final int concurrency;
+		private final int holdability;
+
+		Key(String sql, boolean callable, int type, int concurrency, int holdability) {
+			this.sql = sql;
+			this.callable = callable;
+			this.type = type;
+			this.concurrency = concurrency;
+			this.holdability = holdability;
+		}
+
+		/**
+		 * Prepare a new statement for this key using the specified connection.
+		 */
+		PreparedStatement prepare(Connection c) throws SQLException {
+			if (holdability == DEFAULT_HOLDABILITY) {
+				return callable ? c.prepareCall(sql, type, concurrency)
+								: c.prepareStatement(sql, type, concurrency);
+			}
+			return callable ? c.prepareCall(sql, type, concurrency, holdability)
+							: c.prepareStatement(sql, type, concurrency, holdability);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o == this) return true;
+			if (!(o instanceof Key)) return false;
+			Key that = (Key) o;
+			return callable == that.callable && type == that.type &&
+				concurrency == that.concurrency && holdability == that.holdability &&
+				sql.equals(that.sql);
+		}
+
+		@Override
+		public int hashCode() {
+			int h = sql.hashCode();
+			h = 31 * h + (callable ? 1 : 0);
+			h = 31 * h + type;
+			h = 31 * h + concurrency;
+			return 31 * h + holdability;
+		}
+
+		@Override
+		public String toString() {
+			return (callable ? "call: " : "prepared: ") + sql;
+		}
+	}
+}
@@ -0,0 +1,240 @@
+package com.tzavellas.poolng;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An {@code InvocationHandler} for the dynamic proxies that wrap the statements
+ * created by a {@link PooledConnection}.
+ *
+ * <p>The handler marks the {@code ConnectionHolder} as having an active transaction
+ * whenever a statement gets executed, as having warnings whenever the client
+ * gets the warnings of a statement, and returns the {@code PooledConnection}
+ * (instead of the physical connection) from {@code Statement.getConnection()}.
+ * The result sets of the statement are also wrapped (see {@link ResultSetHandler}).
+ *
+ * <p>Every statement is registered in the {@link OpenStatements} of the holder
+ * until it gets closed, so that the statements left open by the client can be
+ * closed when the connection is returned to the pool. Once closed the proxy
+ * can no longer be used.
+ *
+ * <p>When the statement came from a {@link StatementCache}, closing the proxy
+ * puts the statement back in the cache instead of closing it.
+ *
+ * <p>Like {@code PooledConnection.unwrap}, unwrapping the statement makes the
+ * state of the connection unknown, since the client can use the physical
+ * statement (and its connection) without the pool noticing.
+ *
+ * <p>What the handler does for each method is computed once, when the class
+ * gets loaded, and looked up by the {@code Method} on every call.
+ *
+ * <p>This class is <b>thread-safe</b>.
+ *
+ * @author spiros
+ */
+class StatementHandler implements InvocationHandler {
+
+	private static final Constructor<?> STATEMENT_PROXY = proxyConstructor(Statement.class);
+	private static final Constructor<?> PREPARED_STATEMENT_PROXY = proxyConstructor(PreparedStatement.class);
+	private static final Constructor<?> CALLABLE_STATEMENT_PROXY = proxyConstructor(CallableStatement.class);
+
+	// the actions of the methods, a method without an action gets delegated
+	private static final int EXECUTE = 1;
+	private static final int RETURNS_RESULT_SET = 2;
+	private static final int CLOSE = 4;
+	private static final int IS_CLOSED = 8;
+	private static final int GET_CONNECTION = 16;
+	private static final int UNWRAP = 32;
+	private static final int GET_WARNINGS = 64;
+	private static final Map<Method, Integer> ACTIONS = actionsOf(CallableStatement.class);
+
+	private final Statement target;
+	private final PooledConnection connection;
+	private final ConnectionHolder holder;
+	private final StatementCache cache;
+	private final StatementCache.Key key;
+	private volatile boolean closed;
+	private volatile ResultSet resultSet; // the last result set, when cached
+	private int slot; // in the OpenStatements of the holder
+
+	private StatementHandler(Statement s, PooledConnection c, ConnectionHolder ch) {
+		this(s, c, ch, null, null);
+	}
+
+	private StatementHandler(Statement s, PooledConnection c, ConnectionHolder ch, StatementCache sc, StatementCache.Key k) {
+		target = s;
+		connection = c;
+		holder = ch;
+		cache = sc;
+		key = k;
+	}
+
+	static Statement wrap(Statement s, PooledConnection c, ConnectionHolder ch) {
+		return (Statement) newProxy(STATEMENT_PROXY, new StatementHandler(s, c, ch));
+	}
+
+	static PreparedStatement wrap(PreparedStatement s, PooledConnection c, ConnectionHolder ch) {
+		return (PreparedStatement) newProxy(PREPARED_STATEMENT_PROXY, new StatementHandler(s, c, ch));
+	}
+
+	static CallableStatement wrap(CallableStatement s, PooledConnection c, ConnectionHolder ch) {
+		return (CallableStatement) newProxy(CALLABLE_STATEMENT_PROXY, new StatementHandler(s, c, ch));
+	}
+
+	static PreparedStatement wrap(PreparedStatement s, PooledConnection c, ConnectionHolder ch, StatementCache sc, StatementCache.Key k) {
+		return (PreparedStatement) newProxy(PREPARED_STATEMENT_PROXY, new StatementHandler(s, c, ch, sc, k));
+	}
+
+	static CallableStatement wrap(CallableStatement s, PooledConnection c, ConnectionHolder ch, StatementCache sc, StatementCache.Key k) {
+		return (CallableStatement) newProxy(CALLABLE_STATEMENT_PROXY, new StatementHandler(s, c, ch, sc, k));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		if (method.getDeclaringClass() == Object.class) {
+			return invokeObjectMethod(proxy, method.getName(), args);
+		}
+		Integer a = ACTIONS.get(method);
+		int action = a == null ? 0 : a;
+		if ((action & CLOSE) != 0) {
+			close();
+			return null;
+		}
+		if (closed) {
+			if ((action & IS_CLOSED) != 0) {
+				return true;
+			}
+			throw new SQLException("Could not execute operation on a closed statement!");
+		}
+		if ((action & GET_CONNECTION) != 0) {
+			return connection;
+		}
+		if ((action & EXECUTE) != 0) {
+			holder.transactionStarted();
+		}
+		if ((action & UNWRAP) != 0) {
+			// we cannot track the unwrapped object
+			holder.setTransactionActive(null);
+			holder.clearState();
+		}
+		Object result;
+		try {
+			result = method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+		if (result != null && (action & GET_WARNINGS) != 0) {
+			holder.setWarnings(true);
+		}
+		if (result != null && (action & RETURNS_RESULT_SET) != 0) {
+			if (cache != null) {
+				resultSet = (ResultSet) result;
+			}
+			return ResultSetHandler.wrap((ResultSet) result, (Statement) proxy, holder);
+		}
+		return result;
+	}
+	
+	/**
+	 * Close the statement, or put it back in the cache if it came from a
+	 * {@code StatementCache}, and unregister it from the open statements
+	 * of the holder.
+	 */
+	private void close() throws SQLException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (!holder.getOpenStatements().remove(slot, target)) {
+			return; // already closed by the pool
+		}
+		if (cache == null) {
+			target.close();
+			return;
+		}
+		ResultSet rs = resultSet;
+		if (rs != null) {
+			resultSet = null;
+			try {
+				rs.close();
+			} catch (SQLException e) {
+				target.close();
+				return;
+			}
+		}
+		cache.release(key, (PreparedStatement) target);
+	}
+
+	private Object invokeObjectMethod(Object proxy, String name, Object[] args) {
+		if (name.equals("equals")) {
+			return proxy == args[0];
+		}
+		if (name.equals("hashCode")) {
+			return System.identityHashCode(proxy);
+		}
+		return "Pooled statement: [" + target + "]";
+	}
+
+	// -----------------------------------------------------------------------
+
+	private static Map<Method, Integer> actionsOf(Class<?> iface) {
+		Map<Method, Integer> actions = new HashMap<Method, Integer>();
+		for (Method m : iface.getMethods()) {
+			String name = m.getName();
+			int action = 0;
+			if (name.startsWith("execute")) {
+				action |= EXECUTE;
+			}
+			if (m.getReturnType() == ResultSet.class) {
+				action |= RETURNS_RESULT_SET;
+			}
+			if (name.equals("close") && m.getParameterTypes().length == 0) {
+				action |= CLOSE;
+			} else if (name.equals("isClosed")) {
+				action |= IS_CLOSED;
+			} else if (name.equals("getConnection")) {
+				action |= GET_CONNECTION;
+			} else if (name.equals("unwrap")) {
+				action |= UNWRAP;
+			} else if (name.equals("getWarnings")) {
+				action |= GET_WARNINGS;
+			}
+			if (action != 0) {
+				actions.put(m, action);
+			}
+		}
+		return actions;
+	}
+
+	private static Constructor<?> proxyConstructor(Class<?> iface) {
+		try {
+			return Proxy.getProxyClass(StatementHandler.class.getClassLoader(), iface)
+						.getConstructor(InvocationHandler.class);
+		} catch (NoSuchMethodException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private static Object newProxy(Constructor<?> constructor, StatementHandler handler) {
+		Object proxy;
+		try {
+			proxy = constructor.newInstance(handler);
+		} catch (Exception e) {
+			throw new IllegalStateException("Could not create statement proxy", e);
+		}
+		handler.slot = handler.holder.getOpenStatements().add(handler.target);
+		return proxy;
+	}
+}
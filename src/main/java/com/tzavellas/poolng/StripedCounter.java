@@ -0,0 +1,76 @@
+package com.tzavellas.poolng;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that is spread over a number of cells, so that the threads that
+ * update it concurrently do not contend on the same variable (like the
+ * {@code LongAdder} of Java 8).
+ *
+ * <p>A thread is mapped to a cell using its id and every cell is in its own
+ * cache line. The value is the sum of the cells, so it is not an atomic
+ * snapshot while other threads update the counter.
+ *
+ * <p>This class is <b>thread-safe</b>.
+ *
+ * @author spiros
+ */
+class StripedCounter {
+
+	/** The number of cells, a power of two based on the available processors. */
+	static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+
+	// a cell every 8 longs, so that the cells do not share a cache line
+	private static final int PADDING = 8;
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+	void increment() {
+		add(1);
+	}
+
+	void decrement() {
+		add(-1);
+	}
+
+	void add(long x) {
+		cells.addAndGet(stripe() * PADDING, x);
+	}
+
+	long get() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			sum += cells.get(i * PADDING);
+		}
+		return sum;
+	}
+
+	/**
+	 * The cell of the current thread, between zero and {@code STRIPES - 1}.
+	 */
+	static int stripe() {
+		return threadHash() & (STRIPES - 1);
+	}
+
+	/**
+	 * A hash of the id of the current thread, so that threads with
+	 * consecutive ids get spread over the cells (and the slots of a
+	 * {@link ThreadAffineCache}).
+	 */
+	static int threadHash() {
+		long id = Thread.currentThread().getId();
+		int h = (int) (id ^ (id >>> 32));
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return h;
+	}
+
+	static int stripes(int processors) {
+		int n = Integer.highestOneBit(Math.max(processors, 1));
+		if (n < processors) {
+			n <<= 1;
+		}
+		return Math.min(n, 64);
+	}
+}
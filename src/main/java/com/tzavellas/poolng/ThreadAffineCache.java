@@ -0,0 +1,147 @@
+package com.tzavellas.poolng;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A small cache of {@code ConnectionHolder} objects that sits in front of the
+ * pool's shared queue of available connections.
+ *
+ * <p>Every thread is mapped to a slot using its id, so a thread that returns a
+ * connection will usually find the same connection in its slot the next time
+ * it borrows one, without touching the shared queue. Slots are not exclusive
+ * to a thread, any thread can steal the holder of another slot so that a cached
+ * connection never gets stranded.
+ *
+ * <p>This class is <b>thread-safe</b>.
+ *
+ * @author spiros
+ */
+class ThreadAffineCache {
+
+	private final AtomicReferenceArray<ConnectionHolder> slots;
+	private final int mask;
+
+	/**
+	 * Create a cache with a number of slots based on the available processors.
+	 */
+	ThreadAffineCache() {
+		this(Runtime.getRuntime().availableProcessors() * 4);
+	}
+
+	/**
+	 * Create a cache.
+	 *
+	 * @param size the number of slots, gets rounded up to a power of two
+	 */
+	ThreadAffineCache(int size) {
+		int slotCount = Integer.highestOneBit(Math.max(size, 1));
+		if (slotCount < size) {
+			slotCount <<= 1;
+		}
+		slots = new AtomicReferenceArray<ConnectionHolder>(slotCount);
+		mask = slotCount - 1;
+	}
+
+	/**
+	 * Put the specified holder in the slot of the current thread.
+	 *
+	 * @return {@code true} if the holder got cached, {@code false} if
+	 *         the slot was occupied.
+	 */
+	boolean offer(ConnectionHolder ch) {
+		return slots.compareAndSet(index(), null, ch);
+	}
+
+	/**
+	 * Take the holder from the slot of the current thread.
+	 *
+	 * @return the holder or {@code null} if the slot was empty
+	 */
+	ConnectionHolder poll() {
+		int i = index();
+		if (slots.get(i) == null) {
+			return null;
+		}
+		return slots.getAndSet(i, null);
+	}
+
+	/**
+	 * Take a holder from any slot.
+	 *
+	 * @return the holder or {@code null} if all the slots were empty
+	 */
+	ConnectionHolder steal() {
+		for (int i = 0; i < slots.length(); i++) {
+			if (slots.get(i) != null) {
+				ConnectionHolder ch = slots.getAndSet(i, null);
+				if (ch != null) {
+					return ch;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Put the specified holder in any empty slot.
+	 *
+	 * @return {@code true} if the holder got cached, {@code false} if all
+	 *         the slots were occupied.
+	 */
+	boolean offerToAny(ConnectionHolder ch) {
+		for (int i = 0; i < slots.length(); i++) {
+			if (slots.get(i) == null && slots.compareAndSet(i, null, ch)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Take the specified holder out of the cache.
+	 *
+	 * @return {@code true} if the holder was cached and got removed
+	 */
+	boolean remove(ConnectionHolder ch) {
+		for (int i = 0; i < slots.length(); i++) {
+			if (slots.get(i) == ch && slots.compareAndSet(i, ch, null)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Add the cached holders to the specified collection, the holders
+	 * stay in the cache.
+	 */
+	void addTo(Collection<ConnectionHolder> c) {
+		for (int i = 0; i < slots.length(); i++) {
+			ConnectionHolder ch = slots.get(i);
+			if (ch != null) {
+				c.add(ch);
+			}
+		}
+	}
+
+	/**
+	 * Returns {@code true} if all the slots are empty.
+	 */
+	boolean isEmpty() {
+		for (int i = 0; i < slots.length(); i++) {
+			if (slots.get(i) != null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	int slotCount() {
+		return slots.length();
+	}
+
+	private int index() {
+		return StripedCounter.threadHash() & mask;
+	}
+}
@@ -9,6 +9,7 @@ import com.tzavellas.poolng.ConnectionInfo;
 import com.tzavellas.poolng.ConnectionPool;
 import com.tzavellas.poolng.DefaultConnectionFactory;
 import com.tzavellas.poolng.Duration;
+import com.tzavellas.poolng.IdleOrder;
 import com.tzavellas.poolng.PoolConfig;
 import com.tzavellas.poolng.TxIsolation;
 
@@ -174,6 +175,174 @@ public class DataSourceFactory {
 	public void setShutdownTimeout(Duration shutdownTimeout) {
 		config.setShutdownTimeout(shutdownTimeout);
 	}
+	/**
+	 * Set whether a returned connection gets cached for the returning thread
+	 * so that the thread can borrow it again without going through the shared
+	 * queue of available connections.
+	 */
+	public void setThreadAffinity(boolean threadAffinity) {
+		config.setThreadAffinity(threadAffinity);
+	}
+	/**
+	 * Set whether the threads waiting for a connection are served in the order
+	 * they arrived (first-in-first-out).
+	 */
+	public void setFairQueue(boolean fairQueue) {
+		config.setFairQueue(fairQueue);
+	}
+	/**
+	 * Set the amount of time since a connection was last returned to the pool
+	 * during which the connection is not validated on borrow. Zero disables
+	 * the bypass.
+	 */
+	public void setValidationBypassWindow(Duration validationBypassWindow) {
+		config.setValidationBypassWindow(validationBypassWindow);
+	}
+	/**
+	 * Set whether the idle connections get validated in the background, at a
+	 * fixed interval, instead of when they are borrowed or returned.
+	 */
+	public void setBackgroundValidation(boolean backgroundValidation) {
+		config.setBackgroundValidation(backgroundValidation);
+	}
+	/**
+	 * Set how often the idle connections get validated in the background.
+	 */
+	public void setValidationInterval(Duration validationInterval) {
+		config.setValidationInterval(validationInterval);
+	}
+	/**
+	 * Set whether the returned connections get reset and validated
+	 * asynchronously, by a pool thread, instead of by the thread that closes
+	 * the connection.
+	 */
+	public void setAsyncReturn(boolean asyncReturn) {
+		config.setAsyncReturn(asyncReturn);
+	}
+	/**
+	 * Set the maximum number of returned connections that can wait for
+	 * asynchronous processing. When the queue is full the connections get
+	 * processed by the thread that closes them.
+	 */
+	public void setReturnQueueCapacity(int returnQueueCapacity) {
+		config.setReturnQueueCapacity(returnQueueCapacity);
+	}
+	/**
+	 * Set whether the pool creates connections in a background thread to keep
+	 * at least min-idle connections available, starting when the pool gets
+	 * initialized.
+	 */
+	public void setPrefill(boolean prefill) {
+		config.setPrefill(prefill);
+	}
+	/**
+	 * Set the maximum number of connections that can be created concurrently.
+	 * The borrowers that exceed the limit wait for the first connection that
+	 * gets created or returned. Zero means no limit.
+	 */
+	public void setMaxConcurrentCreations(int maxConcurrentCreations) {
+		config.setMaxConcurrentCreations(maxConcurrentCreations);
+	}
+	/**
+	 * Set the amount of time a connection can be borrowed before it is
+	 * reported as leaked. Zero disables the leak detection.
+	 */
+	public void setLeakDetectionThreshold(Duration leakDetectionThreshold) {
+		config.setLeakDetectionThreshold(leakDetectionThreshold);
+	}
+	/**
+	 * Set for how many borrows the stack trace of the borrower gets captured,
+	 * to be logged if the connection leaks. One captures every borrow, N
+	 * captures one of every N borrows and zero disables the capture.
+	 */
+	public void setLeakTraceSampleRate(int leakTraceSampleRate) {
+		config.setLeakTraceSampleRate(leakTraceSampleRate);
+	}
+	/**
+	 * Set whether the leaked connections get closed and their permits returned
+	 * to the pool.
+	 */
+	public void setReclaimLeakedConnections(boolean reclaimLeakedConnections) {
+		config.setReclaimLeakedConnections(reclaimLeakedConnections);
+	}
+	/**
+	 * Set whether the connections that become unreachable without getting
+	 * closed are returned to the pool by a background thread.
+	 */
+	public void setReclaimUnreachableConnections(boolean reclaimUnreachableConnections) {
+		config.setReclaimUnreachableConnections(reclaimUnreachableConnections);
+	}
+	/**
+	 * Set the maximum number of prepared and callable statements cached for
+	 * each connection. Zero disables the statement cache.
+	 */
+	public void setStatementCacheSize(int statementCacheSize) {
+		config.setStatementCacheSize(statementCacheSize);
+	}
+	/**
+	 * Set whether a returned connection is handed directly to the thread that
+	 * waits the longest for a connection, instead of going back to the pool.
+	 */
+	public void setDirectHandoff(boolean directHandoff) {
+		config.setDirectHandoff(directHandoff);
+	}
+	/**
+	 * Set the order in which the idle connections get borrowed. It is read
+	 * only when the pool gets created.
+	 */
+	public void setIdleOrder(IdleOrder idleOrder) {
+		config.setIdleOrder(idleOrder);
+	}
+	/**
+	 * Set whether the pool size gets adjusted automatically, between the
+	 * minimum and the maximum pool size, based on the measured load and borrow
+	 * wait times.
+	 */
+	public void setAdaptiveSizing(boolean adaptiveSizing) {
+		config.setAdaptiveSizing(adaptiveSizing);
+	}
+	/**
+	 * Set the smallest size of the pool when adaptive sizing is enabled.
+	 */
+	public void setMinPoolSize(int minPoolSize) {
+		config.setMinPoolSize(minPoolSize);
+	}
+	/**
+	 * Set the largest size of the pool when adaptive sizing is enabled.
+	 */
+	public void setMaxPoolSize(int maxPoolSize) {
+		config.setMaxPoolSize(maxPoolSize);
+	}
+	/**
+	 * Set the interval between the adjustments of the pool size when adaptive
+	 * sizing is enabled.
+	 */
+	public void setSizingInterval(Duration sizingInterval) {
+		config.setSizingInterval(sizingInterval);
+	}
+	/**
+	 * Set the mean borrow wait time above which adaptive sizing grows the
+	 * pool.
+	 */
+	public void setTargetBorrowWaitTime(Duration targetBorrowWaitTime) {
+		config.setTargetBorrowWaitTime(targetBorrowWaitTime);
+	}
+	/**
+	 * Set the maximum time a connection is kept open, the connections that get
+	 * older are retired when returned to the pool or by the housekeeper when
+	 * idle. A zero duration (the default) means that there is no limit.
+	 */
+	public void setMaxLifetime(Duration maxLifetime) {
+		config.setMaxLifetime(maxLifetime);
+	}
+	/**
+	 * Set the number of times a connection can be borrowed before it gets
+	 * retired, when returned to the pool, and replaced in the background. Zero
+	 * (the default) means that there is no limit.
+	 */
+	public void setMaxUsesPerConnection(int maxUsesPerConnection) {
+		config.setMaxUsesPerConnection(maxUsesPerConnection);
+	}
 	/**
 	 * Set the DataSource's name (used for management).
 	 */
@@ -1,6 +1,7 @@
 package com.tzavellas.poolng.jmx;
 
 import com.tzavellas.poolng.Duration;
+import com.tzavellas.poolng.IdleOrder;
 import com.tzavellas.poolng.PoolConfig;
 import com.tzavellas.poolng.TxIsolation;
 
@@ -15,15 +16,38 @@ public class Configuration implements ConfigurationMBean {
 	private int acquisitionRetries;
 	private Duration connectionTimeout;
 	private Duration shutdownTimeout;
+	private boolean threadAffinity;
+	private boolean fairQueue;
+	private boolean directHandoff;
+	private IdleOrder idleOrder;
 	
 	private int minIdle;
 	private int maxIdle;
 	private Duration idleTimeout;
 	private Duration evictionInterval;
+	private Duration maxLifetime;
+	private int maxUsesPerConnection;
 	
 	private boolean validateOnBorrow;
 	private boolean validateOnReturn;
 	private Duration validationTimeout;
+	private Duration validationBypassWindow;
+	private boolean backgroundValidation;
+	private Duration validationInterval;
+	private boolean asyncReturn;
+	private int returnQueueCapacity;
+	private boolean prefill;
+	private int maxConcurrentCreations;
+	private Duration leakDetectionThreshold;
+	private int leakTraceSampleRate;
+	private boolean reclaimLeakedConnections;
+	private boolean reclaimUnreachableConnections;
+	private int statementCacheSize;
+	private boolean adaptiveSizing;
+	private int minPoolSize;
+	private int maxPoolSize;
+	private Duration sizingInterval;
+	private Duration targetBorrowWaitTime;
 	
 	private boolean defaultAutocommit;
 	private TxIsolation defaultIsolation;
@@ -40,13 +64,36 @@ public class Configuration implements ConfigurationMBean {
 		acquisitionRetries = c.getAcquisitionRetries();
 		connectionTimeout = c.getConnectionTimeout();
 		shutdownTimeout = c.getShutdownTimeout();
+		threadAffinity = c.isThreadAffinity();
+		fairQueue = c.isFairQueue();
+		directHandoff = c.isDirectHandoff();
+		idleOrder = c.getIdleOrder();
 		minIdle = c.getMinIdle();
 		maxIdle = c.getMaxIdle();
 		idleTimeout = c.getIdleTimeout();
 		evictionInterval = c.getEvictionInterval();
+		maxLifetime = c.getMaxLifetime();
+		maxUsesPerConnection = c.getMaxUsesPerConnection();
 		validateOnBorrow = c.isValidateOnBorrow();
 		validateOnReturn = c.isValidateOnReturn();
 		validationTimeout = c.getValidationTimeout();
+		validationBypassWindow = c.getValidationBypassWindow();
+		backgroundValidation = c.isBackgroundValidation();
+		validationInterval = c.getValidationInterval();
+		asyncReturn = c.isAsyncReturn();
+		returnQueueCapacity = c.getReturnQueueCapacity();
+		prefill = c.isPrefill();
+		maxConcurrentCreations = c.getMaxConcurrentCreations();
+		leakDetectionThreshold = c.getLeakDetectionThreshold();
+		leakTraceSampleRate = c.getLeakTraceSampleRate();
+		reclaimLeakedConnections = c.isReclaimLeakedConnections();
+		reclaimUnreachableConnections = c.isReclaimUnreachableConnections();
+		statementCacheSize = c.getStatementCacheSize();
+		adaptiveSizing = c.isAdaptiveSizing();
+		minPoolSize = c.getMinPoolSize();
+		maxPoolSize = c.getMaxPoolSize();
+		sizingInterval = c.getSizingInterval();
+		targetBorrowWaitTime = c.getTargetBorrowWaitTime();
 		defaultAutocommit = c.isDefaultAutocommit();
 		defaultIsolation = c.getDefaultIsolation();
 		defaultReadOnly = c.getDefaultReadOnly();
@@ -59,13 +106,36 @@ public class Configuration implements ConfigurationMBean {
 		config.setAcquisitionRetries(acquisitionRetries);
 		config.setConnectionTimeout(connectionTimeout);
 		config.setShutdownTimeout(shutdownTimeout);
+		config.setThreadAffinity(threadAffinity);
+		config.setFairQueue(fairQueue);
+		config.setDirectHandoff(directHandoff);
+		config.setIdleOrder(idleOrder);
 		config.setMinIdle(minIdle);
 		config.setMaxIdle(maxIdle);
 		config.setIdleTimeout(idleTimeout);
 		config.setEvictionInterval(evictionInterval);
+		config.setMaxLifetime(maxLifetime);
+		config.setMaxUsesPerConnection(maxUsesPerConnection);
 		config.setValidateOnBorrow(validateOnBorrow);
 		config.setValidateOnReturn(validateOnReturn);
 		config.setValidationTimeout(validationTimeout);
+		config.setValidationBypassWindow(validationBypassWindow);
+		config.setBackgroundValidation(backgroundValidation);
+		config.setValidationInterval(validationInterval);
+		config.setAsyncReturn(asyncReturn);
+		config.setReturnQueueCapacity(returnQueueCapacity);
+		config.setPrefill(prefill);
+		config.setMaxConcurrentCreations(maxConcurrentCreations);
+		config.setLeakDetectionThreshold(leakDetectionThreshold);
+		config.setLeakTraceSampleRate(leakTraceSampleRate);
+		config.setReclaimLeakedConnections(reclaimLeakedConnections);
+		config.setReclaimUnreachableConnections(reclaimUnreachableConnections);
+		config.setStatementCacheSize(statementCacheSize);
+		config.setAdaptiveSizing(adaptiveSizing);
+		config.setMinPoolSize(minPoolSize);
+		config.setMaxPoolSize(maxPoolSize);
+		config.setSizingInterval(sizingInterval);
+		config.setTargetBorrowWaitTime(targetBorrowWaitTime);
 		config.setDefaultAutocommit(defaultAutocommit);
 		config.setDefaultIsolation(defaultIsolation);
 		config.setDefaultReadOnly(defaultReadOnly);
@@ -98,6 +168,27 @@ public class Configuration implements ConfigurationMBean {
 	public void setShutdownTimeout(String timeout) {
 		this.shutdownTimeout = Duration.valueOf(timeout);
 	}
+	public boolean isThreadAffinity() {
+		return threadAffinity;
+	}
+	public void setThreadAffinity(boolean threadAffinity) {
+		this.threadAffinity = threadAffinity;
+	}
+	public boolean isFairQueue() {
+		return fairQueue;
+	}
+	public void setFairQueue(boolean fairQueue) {
+		this.fairQueue = fairQueue;
+	}
+	public boolean isDirectHandoff() {
+		return directHandoff;
+	}
+	public void setDirectHandoff(boolean directHandoff) {
+		this.directHandoff = directHandoff;
+	}
+	public String getIdleOrder() {
+		return idleOrder.toString();
+	}
 	public int getMinIdle() {
 		return minIdle;
 	}
@@ -122,6 +213,18 @@ public class Configuration implements ConfigurationMBean {
 	public void setEvictionInterval(String interval) {
 		this.evictionInterval = Duration.valueOf(interval);
 	}
+	public String getMaxLifetime() {
+		return maxLifetime.toString();
+	}
+	public void setMaxLifetime(String maxLifetime) {
+		this.maxLifetime = Duration.valueOf(maxLifetime);
+	}
+	public int getMaxUsesPerConnection() {
+		return maxUsesPerConnection;
+	}
+	public void setMaxUsesPerConnection(int maxUsesPerConnection) {
+		this.maxUsesPerConnection = maxUsesPerConnection;
+	}
 	public boolean isValidateOnBorrow() {
 		return validateOnBorrow;
 	}
@@ -140,6 +243,108 @@ public class Configuration implements ConfigurationMBean {
 	public void setValidationTimeout(String timeout) {
 		this.validationTimeout = Duration.valueOf(timeout);
 	}
+	public String getValidationBypassWindow() {
+		return validationBypassWindow.toString();
+	}
+	public void setValidationBypassWindow(String validationBypassWindow) {
+		this.validationBypassWindow = Duration.valueOf(validationBypassWindow);
+	}
+	public boolean isBackgroundValidation() {
+		return backgroundValidation;
+	}
+	public void setBackgroundValidation(boolean backgroundValidation) {
+		this.backgroundValidation = backgroundValidation;
+	}
+	public String getValidationInterval() {
+		return validationInterval.toString();
+	}
+	public void setValidationInterval(String validationInterval) {
+		this.validationInterval = Duration.valueOf(validationInterval);
+	}
+	public boolean isAsyncReturn() {
+		return asyncReturn;
+	}
+	public void setAsyncReturn(boolean asyncReturn) {
+		this.asyncReturn = asyncReturn;
+	}
+	public int getReturnQueueCapacity() {
+		return returnQueueCapacity;
+	}
+	public void setReturnQueueCapacity(int returnQueueCapacity) {
+		this.returnQueueCapacity = returnQueueCapacity;
+	}
+	public boolean isPrefill() {
+		return prefill;
+	}
+	public void setPrefill(boolean prefill) {
+		this.prefill = prefill;
+	}
+	public int getMaxConcurrentCreations() {
+		return maxConcurrentCreations;
+	}
+	public void setMaxConcurrentCreations(int maxConcurrentCreations) {
+		this.maxConcurrentCreations = maxConcurrentCreations;
+	}
+	public String getLeakDetectionThreshold() {
+		return leakDetectionThreshold.toString();
+	}
+	public void setLeakDetectionThreshold(String leakDetectionThreshold) {
+		this.leakDetectionThreshold = Duration.valueOf(leakDetectionThreshold);
+	}
+	public int getLeakTraceSampleRate() {
+		return leakTraceSampleRate;
+	}
+	public void setLeakTraceSampleRate(int leakTraceSampleRate) {
+		this.leakTraceSampleRate = leakTraceSampleRate;
+	}
+	public boolean isReclaimLeakedConnections() {
+		return reclaimLeakedConnections;
+	}
+	public void setReclaimLeakedConnections(boolean reclaimLeakedConnections) {
+		this.reclaimLeakedConnections = reclaimLeakedConnections;
+	}
+	public boolean isReclaimUnreachableConnections() {
+		return reclaimUnreachableConnections;
+	}
+	public void setReclaimUnreachableConnections(boolean reclaimUnreachableConnections) {
+		this.reclaimUnreachableConnections = reclaimUnreachableConnections;
+	}
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+	public void setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+	}
+	public boolean isAdaptiveSizing() {
+		return adaptiveSizing;
+	}
+	public void setAdaptiveSizing(boolean adaptiveSizing) {
+		this.adaptiveSizing = adaptiveSizing;
+	}
+	public int getMinPoolSize() {
+		return minPoolSize;
+	}
+	public void setMinPoolSize(int minPoolSize) {
+		this.minPoolSize = minPoolSize;
+	}
+	public int getMaxPoolSize() {
+		return maxPoolSize;
+	}
+	public void setMaxPoolSize(int maxPoolSize) {
+		this.maxPoolSize = maxPoolSize;
+	}
+	public String getSizingInterval() {
+		return sizingInterval.toString();
+	}
+	public void setSizingInterval(String sizingInterval) {
+		this.sizingInterval = Duration.valueOf(sizingInterval);
+	}
+	public String getTargetBorrowWaitTime() {
+		return targetBorrowWaitTime.toString();
+	}
+	public void setTargetBorrowWaitTime(String targetBorrowWaitTime) {
+		this.targetBorrowWaitTime = Duration.valueOf(targetBorrowWaitTime);
+	}
 	public boolean isDefaultAutocommit() {
 		return defaultAutocommit;
 	}
@@ -28,6 +28,21 @@ public interface ConfigurationMBean {
 
 	void setShutdownTimeout(String timeout);
 
+	boolean isThreadAffinity();
+
+	void setThreadAffinity(boolean threadAffinity);
+
+	boolean isFairQueue();
+
+	void setFairQueue(boolean fairQueue);
+
+	boolean isDirectHandoff();
+
+	void setDirectHandoff(boolean directHandoff);
+
+	@JmxDescription("Possible values: FIFO, LIFO. Read-only, the order is chosen when the pool gets created")
+	String getIdleOrder();
+
 	int getMinIdle();
 
 	void setMinIdle(int minIdle);
@@ -44,6 +59,14 @@ public interface ConfigurationMBean {
 
 	void setEvictionInterval(String interval);
 
+	String getMaxLifetime();
+
+	void setMaxLifetime(String maxLifetime);
+
+	int getMaxUsesPerConnection();
+
+	void setMaxUsesPerConnection(int maxUsesPerConnection);
+
 	boolean isValidateOnBorrow();
 
 	void setValidateOnBorrow(boolean validateOnBorrow);
@@ -56,6 +79,74 @@ public interface ConfigurationMBean {
 
 	void setValidationTimeout(String timeout);
 
+	String getValidationBypassWindow();
+
+	void setValidationBypassWindow(String validationBypassWindow);
+
+	boolean isBackgroundValidation();
+
+	void setBackgroundValidation(boolean backgroundValidation);
+
+	String getValidationInterval();
+
+	void setValidationInterval(String validationInterval);
+
+	boolean isAsyncReturn();
+
+	void setAsyncReturn(boolean asyncReturn);
+
+	int getReturnQueueCapacity();
+
+	void setReturnQueueCapacity(int returnQueueCapacity);
+
+	boolean isPrefill();
+
+	void setPrefill(boolean prefill);
+
+	int getMaxConcurrentCreations();
+
+	void setMaxConcurrentCreations(int maxConcurrentCreations);
+
+	String getLeakDetectionThreshold();
+
+	void setLeakDetectionThreshold(String leakDetectionThreshold);
+
+	int getLeakTraceSampleRate();
+
+	void setLeakTraceSampleRate(int leakTraceSampleRate);
+
+	boolean isReclaimLeakedConnections();
+
+	void setReclaimLeakedConnections(boolean reclaimLeakedConnections);
+
+	boolean isReclaimUnreachableConnections();
+
+	void setReclaimUnreachableConnections(boolean reclaimUnreachableConnections);
+
+	int getStatementCacheSize();
+
+	void setStatementCacheSize(int statementCacheSize);
+
+	boolean isAdaptiveSizing();
+
+	void setAdaptiveSizing(boolean adaptiveSizing);
+
+	int getMinPoolSize();
+
+	void setMinPoolSize(int minPoolSize);
+
+	int getMaxPoolSize();
+
+	void setMaxPoolSize(int maxPoolSize);
+
+	String getSizingInterval();
+
+	void setSizingInterval(String sizingInterval);
+
+	String getTargetBorrowWaitTime();
+
+	void setTargetBorrowWaitTime(String targetBorrowWaitTime);
+
 	boolean isDefaultAutocommit();
 
 	void setDefaultAutocommit(boolean defaultAutocommit);
@@ -51,6 +51,7 @@ public class JmxRegistrar {
 		PoolManagement mx = new PoolManagement(pool, cmx);
 		server.registerMBean(mx, objectNameForPool(pool));
 		server.registerMBean(cmx, objectNameForConfig(pool));
+		server.registerMBean(new PoolStatistics(pool), objectNameForStatistics(pool));
 	}
 	
 	/**
@@ -60,6 +61,7 @@ public class JmxRegistrar {
 	 */
 	public boolean unregisterPool(ConnectionPool pool) {
 		try {
+			server.unregisterMBean(objectNameForStatistics(pool));
 			server.unregisterMBean(objectNameForConfig(pool));
 			server.unregisterMBean(objectNameForPool(pool));
 			return true;
@@ -75,4 +77,8 @@ public class JmxRegistrar {
 	ObjectName objectNameForConfig(ConnectionPool pool) throws MalformedObjectNameException {
 		return new ObjectName("com.tzavellas.poolng:type=Configuration,name=" + pool.getName());
 	}
+	
+	ObjectName objectNameForStatistics(ConnectionPool pool) throws MalformedObjectNameException {
+		return new ObjectName("com.tzavellas.poolng:type=PoolStatistics,name=" + pool.getName());
+	}
 }
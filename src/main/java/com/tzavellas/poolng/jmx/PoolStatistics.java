@@ -0,0 +1,103 @@
+package com.tzavellas.poolng.jmx;
+
+import java.util.concurrent.TimeUnit;
+
+import com.tzavellas.poolng.ConnectionPool;
+import com.tzavellas.poolng.Histogram;
+
+/**
+ * The implementation of {@code PoolStatisticsMBean}.
+ * 
+ * <p>All the values come from the counters that the pool keeps in its
+ * {@link com.tzavellas.poolng.PoolMetrics}, reading an attribute never
+ * iterates the connections of the pool. The rates are computed from the
+ * change of the counters since the previous read of the attribute.
+ * 
+ * @author spiros
+ */
+public class PoolStatistics implements PoolStatisticsMBean {
+	
+	private final ConnectionPool pool;
+	private final Rate creations = new Rate();
+	private final Rate timeouts = new Rate();
+	
+	public PoolStatistics(ConnectionPool p) {
+		pool = p;
+	}
+	
+	public int getActiveConnections() {
+		return pool.getMetrics().getActiveConnections();
+	}
+	
+	public int getIdleConnections() {
+		return pool.getMetrics().getIdleConnections();
+	}
+	
+	public long getTotalConnections() {
+		return pool.getMetrics().getTotalConnections();
+	}
+	
+	public int getMaxActiveConnections() {
+		return pool.getMetrics().getMaxActiveConnections();
+	}
+	
+	public int getWaitingThreads() {
+		return pool.getWaitingThreads();
+	}
+	
+	public int getAvailablePermits() {
+		return pool.getAvailablePermits();
+	}
+	
+	public double getCreationsPerSecond() {
+		return creations.update(pool.getMetrics().getCreations());
+	}
+	
+	public double getTimeoutsPerSecond() {
+		return timeouts.update(pool.getMetrics().getTimeouts());
+	}
+	
+	public long getWaitTime50thPercentile() {
+		return waitTimeAt(50);
+	}
+	
+	public long getWaitTime95thPercentile() {
+		return waitTimeAt(95);
+	}
+	
+	public long getWaitTime99thPercentile() {
+		return waitTimeAt(99);
+	}
+	
+	public long getMaxWaitTime() {
+		return TimeUnit.NANOSECONDS.toMicros(waitTime().getMax());
+	}
+	
+	private long waitTimeAt(double percentile) {
+		return TimeUnit.NANOSECONDS.toMicros(waitTime().getValueAtPercentile(percentile));
+	}
+	
+	private Histogram waitTime() {
+		return pool.getMetrics().getBorrowWaitTime();
+	}
+	
+	// -----------------------------------------------------------------------
+	
+	/**
+	 * The rate of change of a counter between two reads.
+	 */
+	private static class Rate {
+		
+		private long lastCount;
+		private long lastTime = System.nanoTime();
+		
+		synchronized double update(long count) {
+			long now = System.nanoTime();
+			long elapsed = now - lastTime;
+			double rate = elapsed <= 0 ? 0 : (count - lastCount) * 1e9 / elapsed;
+			lastCount = count;
+			lastTime = now;
+			return rate;
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package com.tzavellas.poolng.jmx;
+
+/**
+ * MBean to monitor a Connection Pool instance.
+ * 
+ * @author spiros
+ */
+public interface PoolStatisticsMBean {
+
+	@JmxDescription("The number of connections that are currently borrowed")
+	int getActiveConnections();
+	
+	@JmxDescription("The number of connections that are currently available in the pool")
+	int getIdleConnections();
+	
+	@JmxDescription("The number of open connections")
+	long getTotalConnections();
+	
+	@JmxDescription("The largest number of connections that were borrowed at the same time")
+	int getMaxActiveConnections();
+	
+	@JmxDescription("The number of threads that wait to borrow a connection")
+	int getWaitingThreads();
+	
+	@JmxDescription("The number of connections that can be borrowed before the pool gets exhausted")
+	int getAvailablePermits();
+	
+	@JmxDescription("The number of connections created per second since the previous read")
+	double getCreationsPerSecond();
+	
+	@JmxDescription("The number of borrowers that timed-out per second since the previous read")
+	double getTimeoutsPerSecond();
+	
+	@JmxDescription("The median time (in microseconds) borrowers waited for a connection")
+	long getWaitTime50thPercentile();
+	
+	@JmxDescription("The 95th percentile of the time (in microseconds) borrowers waited for a connection")
+	long getWaitTime95thPercentile();
+	
+	@JmxDescription("The 99th percentile of the time (in microseconds) borrowers waited for a connection")
+	long getWaitTime99thPercentile();
+	
+	@JmxDescription("The longest time (in microseconds) a borrower waited for a connection")
+	long getMaxWaitTime();
+}
@@ -0,0 +1,67 @@
+package com.tzavellas.poolng;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AdaptiveSizerTest {
+	
+	static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+	
+	PoolMetrics metrics = new PoolMetrics();
+	PoolConfig config = new PoolConfig();
+	AdaptiveSizer sizer = new AdaptiveSizer(metrics, 0);
+	
+	{
+		config.setMinPoolSize(2);
+		config.setMaxPoolSize(20);
+		config.setTargetBorrowWaitTime(Duration.millis(10));
+	}
+	
+	@Test
+	public void the_size_follows_the_load_with_headroom() {
+		for (int i = 0; i < 40; i++) {
+			metrics.borrowWaitTime.record(0);
+			metrics.holdTime.record(SECOND / 10); // 4 connections busy on average
+		}
+		assertEquals(5, sizer.nextSize(config, 2, 0, SECOND));
+	}
+	
+	@Test
+	public void the_pool_grows_for_the_borrowers_that_arrive_while_creating_connections() {
+		for (int i = 0; i < 100; i++) {
+			metrics.borrowWaitTime.record(0);
+		}
+		metrics.creationTime.record(SECOND / 20); // 100 borrows/sec * 50ms
+		assertEquals(5, sizer.nextSize(config, 2, 0, SECOND));
+	}
+	
+	@Test
+	public void waiting_threads_make_the_pool_grow() {
+		assertEquals(8, sizer.nextSize(config, 5, 3, SECOND));
+	}
+	
+	@Test
+	public void a_high_borrow_wait_time_makes_the_pool_grow() {
+		metrics.borrowWaitTime.record(TimeUnit.MILLISECONDS.toNanos(50));
+		assertEquals(6, sizer.nextSize(config, 5, 0, SECOND));
+	}
+	
+	@Test
+	public void the_size_stays_within_the_bounds() {
+		assertEquals(20, sizer.nextSize(config, 18, 10, SECOND));
+		assertEquals(2, sizer.nextSize(config, 1, 0, 2 * SECOND));
+	}
+	
+	@Test
+	public void the_pool_shrinks_gradually_after_consecutive_idle_intervals() {
+		assertEquals(10, sizer.nextSize(config, 10, 0, SECOND));
+		assertEquals(10, sizer.nextSize(config, 10, 0, 2 * SECOND));
+		assertEquals(6, sizer.nextSize(config, 10, 0, 3 * SECOND));
+		
+		assertEquals(7, sizer.nextSize(config, 6, 1, 4 * SECOND));
+		assertEquals("Growing restarts the countdown", 7, sizer.nextSize(config, 7, 0, 5 * SECOND));
+	}
+}
@@ -0,0 +1,155 @@
+package com.tzavellas.poolng;
+
+import static org.junit.Assert.*;
+
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ConcurrentStackTest {
+	
+	ConcurrentStack<String> stack = new ConcurrentStack<String>();
+	
+	@Test
+	public void the_last_element_pushed_gets_popped_first() {
+		stack.offer("a");
+		stack.offer("b");
+		stack.offer("c");
+		assertEquals("c", stack.peek());
+		assertEquals("c", stack.poll());
+		assertEquals("b", stack.poll());
+		assertEquals("a", stack.poll());
+		assertNull(stack.poll());
+		assertTrue(stack.isEmpty());
+	}
+	
+	@Test
+	public void an_element_can_be_removed_from_the_middle_of_the_stack() {
+		stack.offer("a");
+		stack.offer("b");
+		stack.offer("c");
+		assertTrue(stack.remove("b"));
+		assertFalse(stack.remove("b"));
+		assertEquals(2, stack.size());
+		assertEquals("c", stack.poll());
+		assertEquals("a", stack.poll());
+		assertNull(stack.poll());
+	}
+	
+	@Test
+	public void the_iterator_goes_from_the_top_to_the_bottom_and_can_remove() {
+		stack.offer("a");
+		stack.offer("b");
+		stack.offer("c");
+		Iterator<String> i = stack.iterator();
+		assertEquals("c", i.next());
+		assertEquals("b", i.next());
+		i.remove();
+		assertEquals("a", i.next());
+		assertFalse(i.hasNext());
+		
+		assertEquals(2, stack.size());
+		assertEquals("c", stack.poll());
+		assertEquals("a", stack.poll());
+	}
+	
+	@Test
+	public void the_bottom_of_the_stack_is_the_first_element_pushed() {
+		stack.offer("a");
+		stack.offer("b");
+		stack.offer("c");
+		assertEquals("a", stack.peekLast());
+		assertTrue(stack.removeLastOccurrence("a"));
+		assertFalse(stack.removeLastOccurrence("a"));
+		assertEquals("b", stack.peekLast());
+		
+		Iterator<String> i = stack.descendingIterator();
+		assertEquals("b", i.next());
+		i.remove();
+		assertEquals("c", i.next());
+		assertFalse(i.hasNext());
+		assertEquals("c", stack.peekLast());
+		assertEquals(1, stack.size());
+	}
+	
+	@Test
+	public void the_bottom_is_found_after_the_stack_gets_emptied() {
+		stack.offer("a");
+		stack.offer("b");
+		assertEquals("a", stack.peekLast());
+		stack.poll();
+		stack.poll();
+		assertNull(stack.peekLast());
+		stack.offer("c");
+		stack.offer("d");
+		assertEquals("c", stack.peekLast());
+		// empty it below the bottom hint while it is not empty
+		stack.offer("e");
+		stack.remove("c");
+		stack.poll();
+		stack.poll();
+		stack.offer("f");
+		assertEquals("f", stack.peekLast());
+		stack.offer("g");
+		stack.poll();
+		stack.poll();
+		stack.offer("h");
+		stack.offer("i");
+		assertEquals("h", stack.peekLast());
+	}
+	
+	@Test
+	public void the_removed_nodes_get_unlinked() {
+		stack.offer("a");
+		stack.offer("b");
+		stack.offer("c");
+		stack.offer("d");
+		for (int i = 0; i < 100000; i++) {
+			String e = "e" + i;
+			switch (i % 3) {
+			case 0:
+				stack.remove(stack.peekLast());
+				break;
+			case 1:
+				stack.removeLastOccurrence(stack.peekLast());
+				break;
+			default:
+				Iterator<String> it = stack.descendingIterator();
+				it.next();
+				it.next();
+				it.remove();
+			}
+			stack.offer(e);
+			assertTrue(stack.linkedNodes() <= 8);
+		}
+		assertEquals(4, stack.size());
+		assertEquals(4, stack.linkedNodes());
+	}
+	
+	@Test
+	public void no_elements_are_lost_under_contention() throws Exception {
+		final int threads = 8, iterations = 10000;
+		final AtomicInteger popped = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++) {
+			final String e = "e" + i;
+			new Thread(new Runnable() {
+				public void run() {
+					for (int j = 0; j < iterations; j++) {
+						stack.offer(e);
+						if (stack.poll() != null) {
+							popped.incrementAndGet();
+						}
+					}
+					done.countDown();
+				}
+			}).start();
+		}
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		assertEquals(threads * iterations, popped.get());
+		assertTrue(stack.isEmpty());
+	}
+}
@@ -32,6 +32,45 @@ public class ConnectionHolderTest {
 		assertTrue(holder.hasIdleConnection(Duration.millis(1)));
 	}
 	
+	@Test
+	public void a_connection_expires_at_the_end_of_its_lifetime() throws InterruptedException {
+		ConnectionHolder holder = new ConnectionHolder(null);
+		assertFalse(holder.hasLifetime());
+		assertFalse(holder.isExpired());
+		
+		holder.setLifetime(Duration.millis(1).toNanos());
+		assertTrue(holder.hasLifetime());
+		Thread.sleep(2);
+		assertTrue(holder.isExpired());
+		assertTrue(holder.getRemainingLifetime() <= 0);
+	}
+	
+	@Test
+	public void a_borrowed_connection_was_not_returned_recently() throws InterruptedException {
+		ConnectionHolder holder = new ConnectionHolder(null);
+		assertTrue(holder.wasReturnedWithin(Duration.minutes(10)));
+		assertFalse(holder.wasReturnedWithin(Duration.nanos(0)));
+		
+		holder.setBorrowed();
+		assertFalse(holder.wasReturnedWithin(Duration.minutes(10)));
+		
+		holder.setReturned();
+		Thread.sleep(2);
+		assertTrue(holder.wasReturnedWithin(Duration.minutes(10)));
+		assertFalse(holder.wasReturnedWithin(Duration.millis(1)));
+	}
+	
+	@Test
+	public void a_connection_needs_validation_when_not_validated_or_returned_within_the_interval() throws InterruptedException {
+		ConnectionHolder holder = new ConnectionHolder(null);
+		assertFalse(holder.needsValidation(Duration.minutes(10)));
+		Thread.sleep(2);
+		assertTrue(holder.needsValidation(Duration.millis(1)));
+		
+		holder.setValidated();
+		assertFalse(holder.needsValidation(Duration.millis(1)));
+	}
+	
 	@Test
 	public void comparator_sorts_connections_with_older_first() throws InterruptedException {
 		ConnectionHolder h1 = new ConnectionHolder(null);
@@ -46,4 +85,15 @@ public class ConnectionHolderTest {
 		olderFirst.add(h2);
 		assertEquals(h1, olderFirst.iterator().next());
 	}
+	
+	@Test
+	public void return_time_comparator_sorts_the_least_recently_returned_first() throws InterruptedException {
+		ConnectionHolder h1 = new ConnectionHolder(null);
+		ConnectionHolder h2 = new ConnectionHolder(null);
+		Thread.sleep(2);
+		h1.setReturned();
+		assertEquals(1, ConnectionHolder.RETURN_TIME_COMPARATOR.compare(h1, h2));
+		assertEquals(-1, ConnectionHolder.RETURN_TIME_COMPARATOR.compare(h2, h1));
+		assertEquals(0, ConnectionHolder.RETURN_TIME_COMPARATOR.compare(h1, h1));
+	}
 }
@@ -5,11 +5,25 @@ import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 public class ConnectionPoolTest {
 	
@@ -56,6 +70,42 @@ public class ConnectionPoolTest {
 	}
 	
 	
+	@Test
+	public void with_thread_affinity_a_thread_borrows_the_connection_it_returned() throws SQLException {
+		Connection[] mcs = mockConnections(2);
+		PoolConfig pc = new PoolConfig(2);
+		pc.setThreadAffinity(true);
+		pc.setValidateOnBorrow(false);
+		ConnectionPool pool = new ConnectionPool(mcf, pc);
+		
+		Connection[] cs = borrow(pool, 2);
+		cs[0].close(); // cached in the slot of this thread
+		cs[1].close(); // the slot is occupied, goes to the shared queue
+		assertFalse(pool.isEmpty());
+		
+		assertNextBorrowed(pool, mcs[0]);
+		assertNextBorrowed(pool, mcs[1]);
+		verify(mcf, times(2)).create();
+		assertTrue(pool.isEmpty());
+	}
+	
+	@Test
+	public void a_connection_cached_by_a_thread_can_be_borrowed_by_another_thread() throws Exception {
+		PoolConfig pc = new PoolConfig(1);
+		pc.setThreadAffinity(true);
+		final ConnectionPool pool = new ConnectionPool(mcf, pc);
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				try { pool.borrowConnection().close(); } catch (SQLException ignore) { }
+			}
+		});
+		t.start();
+		t.join();
+		
+		pool.borrowConnection(5, TimeUnit.MILLISECONDS);
+		verify(mcf).create();
+	}
+	
 	@Test(expected=SQLException.class)
 	public void fail_after_timeout_when_all_connections_are_borrowed() throws SQLException {
 		PoolConfig config = new PoolConfig(1);
@@ -83,6 +133,22 @@ public class ConnectionPoolTest {
 		verify(mc).setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
 	}
 	
+	@Test
+	public void the_defaults_are_applied_only_when_changed() throws SQLException {
+		PoolConfig config = new PoolConfig();
+		config.setDefaultReadOnly(false);
+		config.setValidateOnBorrow(false);
+		ConnectionPool pool = new ConnectionPool(mcf, config);
+		pool.borrowConnection().close();
+		Connection c = pool.borrowConnection();
+		c.setReadOnly(true);
+		c.close();
+		pool.borrowConnection();
+		
+		verify(mc, times(1)).setAutoCommit(PoolConfig.DEFAULT_AUTOCOMMIT);
+		verify(mc, times(2)).setReadOnly(false);
+	}
+	
 	@Test
 	public void retry_retrieving_new_connection_after_errors_when_applying_defaults() throws SQLException {
 		doThrow(new SQLException("error setting autocommit"))
@@ -97,18 +163,50 @@ public class ConnectionPoolTest {
 	
 	@Test
 	public void a_connection_gets_reset_when_returned() throws SQLException {
+		Statement ms = mock(Statement.class);
+		when(mc.createStatement()).thenReturn(ms);
+		when(mc.getWarnings()).thenReturn(new SQLWarning());
 		ConnectionPool pool = new ConnectionPool(mcf);
 		Connection c = pool.borrowConnection();
+		c.createStatement().execute("DELETE FROM TEST");
+		assertNotNull(c.getWarnings());
 		c.close();
+		verify(mc).getWarnings(); // only by the client
 		verify(mc).clearWarnings();
 		verify(mc).rollback();
 	}
 	
+	@Test
+	public void an_unused_connection_does_not_get_roll_backed_when_returned() throws SQLException {
+		ConnectionPool pool = new ConnectionPool(mcf);
+		Connection c = pool.borrowConnection();
+		c.close();
+		verify(mc, never()).clearWarnings();
+		verify(mc, never()).rollback();
+	}
+	
+	@Test
+	public void a_committed_connection_does_not_get_roll_backed_when_returned() throws SQLException {
+		PreparedStatement mps = mock(PreparedStatement.class);
+		when(mc.prepareStatement(anyString())).thenReturn(mps);
+		ConnectionPool pool = new ConnectionPool(mcf);
+		Connection c = pool.borrowConnection();
+		c.prepareStatement("DELETE FROM TEST").executeUpdate();
+		c.commit();
+		c.close();
+		verify(mc, never()).rollback();
+	}
+	
 	@Test
 	public void error_on_reset_gets_the_connection_discarded() throws SQLException {
 		doThrow(new SQLException()).when(mc).clearWarnings();
+		when(mc.getWarnings()).thenReturn(new SQLWarning());
+		Statement ms = mock(Statement.class);
+		when(mc.createStatement()).thenReturn(ms);
 		ConnectionPool pool = new ConnectionPool(mcf);
 		Connection c = pool.borrowConnection();
+		c.createStatement().execute("DELETE FROM TEST");
+		c.getWarnings();
 		c.close();
 		verify(mc).clearWarnings();
 		verify(mc).rollback();
@@ -128,6 +226,126 @@ public class ConnectionPoolTest {
 		verify(mc, times(2)).isValid(anyInt());
 	}
 	
+	@Test
+	public void recently_returned_connections_are_not_validated_on_borrow() throws SQLException {
+		PoolConfig pc = new PoolConfig();
+		pc.setValidationBypassWindow(Duration.minutes(1));
+		ConnectionPool pool = new ConnectionPool(mcf, pc);
+		pool.borrowConnection().close();
+		pool.borrowConnection().close();
+		
+		verify(mc, never()).isValid(anyInt());
+		assertEquals(2, pool.getValidationsSkipped());
+		assertEquals(0, pool.getValidationsPerformed());
+	}
+	
+	@Test
+	public void connections_returned_before_the_bypass_window_get_validated() throws Exception {
+		PoolConfig pc = new PoolConfig();
+		pc.setValidationBypassWindow(Duration.millis(1));
+		pc.setValidateOnReturn(true);
+		ConnectionPool pool = new ConnectionPool(mcf, pc);
+		Connection c = pool.borrowConnection();
+		c.close();
+		TimeUnit.MILLISECONDS.sleep(5);
+		pool.borrowConnection();
+		
+		verify(mc, times(2)).isValid(anyInt());
+		assertEquals(1, pool.getValidationsSkipped());
+		assertEquals(2, pool.getValidationsPerformed());
+	}
+	
+	@Test
+	public void with_background_validation_borrowers_do_not_validate() throws SQLException {
+		PoolConfig pc = new PoolConfig();
+		pc.setValidateOnReturn(true);
+		pc.setBackgroundValidation(true);
+		ConnectionPool pool = new ConnectionPool(mcf, pc);
+		pool.borrowConnection().close();
+		pool.borrowConnection().close();
+		verify(mc, never()).isValid(anyInt());
+	}
+	
+	@Test
+	public void background_validation_discards_the_invalid_idle_connections() throws Exception {
+		Connection[] mcs = mockConnections(2);
+		when(mcs[1].isValid(anyInt())).thenReturn(false);
+		
+		PoolConfig pc = new PoolConfig(2);
+		pc.setBackgroundValidation(true);
+		pc.setValidationInterval(Duration.millis(1));
+		ConnectionPool pool = new ConnectionPool(mcf, pc);
+		close(borrow(pool, 2));
+		TimeUnit.MILLISECONDS.sleep(2); // past the validation interval
+		pool.validateIdleConnections();
+		
+		verify(mcs[0], never()).close();
+		verify(mcs[1]).close();
+		assertEquals(2, pool.getValidationsPerformed());
+		assertNextBorrowed(pool, mcs[0]);
+		assertTrue(pool.isEmpty());
+	}
+	
+	@Test
+	public void with_lifo_order_background_validation_checks_every_idle_connection() throws Exception {
+		Connection[] mcs = mockConnections(3);
+		when(mcs[0].isValid(anyInt())).thenReturn(false);
+		when(mcs[1].isValid(anyInt())).thenReturn(false);
+		
+		PoolConfig pc = new PoolConfig(3);
+		pc.setIdleOrder(IdleOrder.LIFO);
+		pc.setBackgroundValidation(true);
+		pc.setValidationInterval(Duration.millis(1));
+		ConnectionPool pool = new ConnectionPool(mcf, pc);
+		close(borrow(pool, 3));
+		TimeUnit.MILLISECONDS.sleep(2); // past the validation interval
+		pool.validateIdleConnections();
+		
+		verify(mcs[0]).close();
+		verify(mcs[1]).close();
+		verify(mcs[2], never()).close();
+		assertEquals(3, pool.getValidationsPerformed());
+		assertNextBorrowed(pool, mcs[2]);
+		assertTrue(pool.isEmpty());
+	}
+	
+	@Test
+	public void with_lifo_order_the_validated_connections_go_back_below_the_recently_returned() throws Exception {
+		Connection[] mcs = mockConnections(4);
+		PoolConfig pc = new PoolConfig(4);
+		pc.setIdleOrder(IdleOrder.LIFO);
+		pc.setValidateOnBorrow(false);
+		pc.setBackgroundValidation(true);
+		pc.setValidationInterval(Duration.millis(20));
+		ConnectionPool pool = new ConnectionPool(mcf, pc);
+		Connection[] cs = borrow(pool, 4);
+		close(cs[0], cs[1]);
+		TimeUnit.MILLISECONDS.sleep(30); // past the validation interval
+		close(cs[2], cs[3]);
+		pool.validateIdleConnections();
+		
+		verify(mcs[0]).isValid(anyInt());
+		verify(mcs[1]).isValid(anyInt());
+		verify(mcs[3], never()).isValid(anyInt());
+		assertNextBorrowed(pool, mcs[3]);
+		assertNextBorrowed(pool, mcs[2]);
+		assertNextBorrowed(pool, mcs[1]);
+		assertNextBorrowed(pool, mcs[0]);
+	}
+	
+	@Test
+	public void background_validation_skips_recently_used_connections() throws Exception {
+		PoolConfig pc = new PoolConfig();
+		pc.setBackgroundValidation(true);
+		pc.setValidationInterval(Duration.minutes(1));
+		ConnectionPool pool = new ConnectionPool(mcf, pc);
+		pool.borrowConnection().close();
+		pool.validateIdleConnections();
+		
+		verify(mc, never()).isValid(anyInt());
+		assertFalse(pool.isEmpty());
+	}
+	
 	@Test
 	public void disable_validation() throws SQLException {
 		PoolConfig pc = new PoolConfig();
@@ -161,68 +379,180 @@ public class ConnectionPoolTest {
 	public void no_connection_available_for_the_idle_collector() throws SQLException, InterruptedException {
 		ConnectionPool pool = new ConnectionPool(mcf);
 		pool.borrowConnection();
-		pool.scheduleEviction(1, TimeUnit.MICROSECONDS);
-		TimeUnit.MILLISECONDS.sleep(10);
+		pool.collectIdleConnections();
 		verify(mc, never()).close();
 	}
 	
+	@Test
+	public void the_idle_collector_runs_when_the_permits_are_exhausted() throws SQLException, InterruptedException {
+		Connection[] mcs = mockConnections(3);
+		PoolConfig pc = new PoolConfig(3);
+		pc.setMinIdle(0);
+		pc.setMaxIdle(2);
+		pc.setIdleTimeout(Duration.millis(1));
+		ConnectionPool pool = new ConnectionPool(mcf, pc);
+		close(borrow(pool, 3));
+		// shrink the pool and take its only permit, the other two connections stay idle
+		PoolConfig shrunk = pc.clone();
+		shrunk.setPoolSize(1);
+		pool.reconfigure(shrunk);
+		pool.borrowConnection();
+		assertEquals(0, pool.getAvailablePermits());
+		TimeUnit.MILLISECONDS.sleep(2); // past the idle timeout
+		pool.collectIdleConnections();
+		
+		verify(mcs[0], never()).close();
+		verify(mcs[1]).close();
+		verify(mcs[2]).close();
+		assertTrue(pool.isEmpty());
+	}
+	
 	@Test
 	public void idle_connection_eviction_leaves_minIdle_connections_in_the_pool() throws SQLException, InterruptedException {
-		Connection mc1 = mock(Connection.class, "mc1");
-		Connection mc2 = mock(Connection.class, "mc2");
-		Connection mc3 = mock(Connection.class, "mc3");
-		ConnectionFactory mcf = mock(ConnectionFactory.class);
-		when(mcf.create()).thenReturn(mc1, mc2, mc3);
-		when(mc1.isValid(anyInt())).thenReturn(true);
-		when(mc2.isValid(anyInt())).thenReturn(true);
-		when(mc3.isValid(anyInt())).thenReturn(true);
+		Connection[] mcs = mockConnections(3);
+		PoolConfig pc = new PoolConfig(3);
+		pc.setMinIdle(1);
+		pc.setMaxIdle(2);
+		pc.setIdleTimeout(Duration.millis(1));
+		ConnectionPool pool = new ConnectionPool(mcf, pc);
+		close(borrow(pool, 3));
+		TimeUnit.MILLISECONDS.sleep(2); // past the idle timeout
+		pool.collectIdleConnections();
 		
+		verify(mcs[0]).close();
+		verify(mcs[1]).close();
+		verify(mcs[2], never()).close();
+		assertNextBorrowed(pool, mcs[2]);
+		assertTrue(pool.isEmpty());
+	}
+	
+	@Test
+	public void with_lifo_order_the_least_recently_returned_connections_get_evicted() throws SQLException, InterruptedException {
+		Connection[] mcs = mockConnections(3);
 		PoolConfig pc = new PoolConfig(3);
+		pc.setIdleOrder(IdleOrder.LIFO);
 		pc.setMinIdle(1);
 		pc.setMaxIdle(2);
 		pc.setIdleTimeout(Duration.millis(1));
 		ConnectionPool pool = new ConnectionPool(mcf, pc);
-		Connection c1 = pool.borrowConnection();
-		Connection c2 = pool.borrowConnection();
-		Connection c3 = pool.borrowConnection();
-		c1.close();
-		c2.close();
-		c3.close();
-		TimeUnit.MILLISECONDS.sleep(5);
-		pool.scheduleEviction(1, TimeUnit.MILLISECONDS);
-		TimeUnit.MILLISECONDS.sleep(50);
+		Connection[] cs = borrow(pool, 3);
+		close(cs[2], cs[1], cs[0]);
+		TimeUnit.MILLISECONDS.sleep(2); // past the idle timeout
+		pool.collectIdleConnections();
 		
-		verify(mc1).close();
-		verify(mc2).close();
+		verify(mcs[2]).close();
+		verify(mcs[1]).close();
+		verify(mcs[0], never()).close();
+		assertNextBorrowed(pool, mcs[0]);
+		assertTrue(pool.isEmpty());
 	}
 	
 	@Test
-	public void remove_all_idle_connections() throws SQLException, InterruptedException {
-		Connection mc1 = mock(Connection.class, "mc1");
-		Connection mc2 = mock(Connection.class, "mc2");
+	public void a_reconfiguration_keeps_the_idle_order_of_the_pool() {
+		ConnectionPool pool = new ConnectionPool(mcf, new PoolConfig());
+		PoolConfig pc = pool.getConfiguration();
+		pc.setIdleOrder(IdleOrder.LIFO);
+		pc.setMinIdle(0);
+		pool.reconfigure(pc);
+		assertEquals(IdleOrder.FIFO, pool.getConfiguration().getIdleOrder());
+		assertEquals(0, pool.getConfiguration().getMinIdle());
+	}
+	
+	@Test
+	public void a_connection_past_its_max_lifetime_gets_retired_when_returned() throws SQLException, InterruptedException {
+		PoolConfig pc = new PoolConfig();
+		pc.setMaxLifetime(Duration.millis(5));
+		ConnectionPool pool = new ConnectionPool(mcf, pc);
+		Connection c = pool.borrowConnection();
+		TimeUnit.MILLISECONDS.sleep(10);
+		c.close();
 		
-		ConnectionFactory mcf = mock(ConnectionFactory.class);
-		when(mcf.create()).thenReturn(mc1, mc2);
-		when(mc1.isValid(anyInt())).thenReturn(true);
-		when(mc2.isValid(anyInt())).thenReturn(true);
+		verify(mc).close();
+		assertEquals(1, pool.getMetrics().getRetirements());
+		assertEquals(0, pool.getMetrics().getIdleConnections());
+		assertEquals(pc.getPoolSize(), pool.getAvailablePermits());
+	}
+	
+	@Test
+	public void an_idle_connection_gets_retired_and_replaced_by_the_housekeeper_at_the_end_of_its_lifetime() throws SQLException, InterruptedException {
+		Connection[] mcs = mockConnections(2);
+		PoolConfig pc = new PoolConfig();
+		pc.setMaxLifetime(Duration.millis(20));
+		ConnectionPool pool = new ConnectionPool(mcf, pc);
+		pool.init();
+		pool.borrowConnection().close();
+		verify(mcs[0], never()).close();
+		PoolMetrics metrics = pool.getMetrics();
+		long deadline = System.currentTimeMillis() + 1000;
+		while ((metrics.getRetirements() == 0 || metrics.getCreations() < 2) && System.currentTimeMillis() < deadline) {
+			TimeUnit.MILLISECONDS.sleep(1);
+		}
+		
+		verify(mcs[0]).close();
+		assertTrue(metrics.getRetirements() >= 1);
+		assertTrue(metrics.getCreations() >= 2);
+		pool.shutdown();
+	}
+	
+	@Test
+	public void the_retirer_retires_only_the_idle_connections_at_the_end_of_their_lifetime() throws SQLException, InterruptedException {
+		Connection[] mcs = mockConnections(3);
+		PoolConfig pc = new PoolConfig(3);
+		pc.setIdleOrder(IdleOrder.LIFO);
+		pc.setMaxLifetime(Duration.millis(50));
+		ConnectionPool pool = new ConnectionPool(mcf, pc);
+		Connection c1 = pool.borrowConnection();
+		TimeUnit.MILLISECONDS.sleep(60); // past the lifetime of the first connection
+		Connection c2 = pool.borrowConnection();
+		close(c1, c2);
+		pool.retireExpiredConnections();
 		
+		verify(mcs[0]).close();
+		verify(mcs[1], never()).close();
+		assertEquals(1, pool.getMetrics().getRetirements());
+		assertEquals(1, pool.getMetrics().getIdleConnections());
+		assertNextBorrowed(pool, mcs[1]);
+	}
+	
+	@Test
+	public void a_connection_gets_retired_and_replaced_after_max_uses() throws SQLException, InterruptedException {
+		Connection[] mcs = mockConnections(2);
+		PoolConfig pc = new PoolConfig(2);
+		pc.setMaxUsesPerConnection(2);
+		ConnectionPool pool = new ConnectionPool(mcf, pc);
+		pool.init();
+		pool.borrowConnection().close();
+		verify(mcs[0], never()).close();
+		pool.borrowConnection().close();
+		verify(mcs[0]).close();
+		assertEquals(1, pool.getMetrics().getRetirements());
 		
+		// the replacement gets created in the background
+		long deadline = System.currentTimeMillis() + 1000;
+		while (pool.getMetrics().getIdleConnections() == 0 && System.currentTimeMillis() < deadline) {
+			TimeUnit.MILLISECONDS.sleep(1);
+		}
+		verify(mcf, times(2)).create();
+		assertEquals(1, pool.getMetrics().getIdleConnections());
+		assertNextBorrowed(pool, mcs[1]);
+		verify(mcf, times(2)).create();
+		pool.shutdown();
+	}
+	
+	@Test
+	public void remove_all_idle_connections() throws SQLException, InterruptedException {
+		Connection[] mcs = mockConnections(2);
 		PoolConfig pc = new PoolConfig(2);
 		pc.setMinIdle(0);
 		pc.setMaxIdle(2);
 		pc.setIdleTimeout(Duration.nanos(50));
 		ConnectionPool pool = new ConnectionPool(mcf, pc);
-		Connection c1 = pool.borrowConnection();
-		Connection c2 = pool.borrowConnection();
-		c1.close();
-		c2.close();
-		
-		TimeUnit.MILLISECONDS.sleep(5);
-		pool.scheduleEviction(1, TimeUnit.MILLISECONDS);
-		TimeUnit.MILLISECONDS.sleep(50);
+		close(borrow(pool, 2));
+		TimeUnit.MILLISECONDS.sleep(1); // past the idle timeout
+		pool.collectIdleConnections();
 		
-		verify(mc1).close();
-		verify(mc2).close();
+		verify(mcs[0]).close();
+		verify(mcs[1]).close();
 		assertTrue(pool.isEmpty());
 	}
 	
@@ -296,15 +626,629 @@ public class ConnectionPoolTest {
 	}
 	
 	@Test
-	public void pool_size_cannot_be_less_than_the_number_of_borrowed_connections() throws SQLException {
+	public void pool_can_shrink_below_the_number_of_borrowed_connections() throws SQLException {
 		PoolConfig pc = new PoolConfig(3);
+		pc.setConnectionTimeout(Duration.millis(1));
 		ConnectionPool pool = new ConnectionPool(mcf, pc);
 		assertEquals(3, pool.getConfiguration().getPoolSize());
 		
-		pool.borrowConnection();
-		pool.borrowConnection();
+		Connection c1 = pool.borrowConnection();
+		Connection c2 = pool.borrowConnection();
 		pc.setPoolSize(1);
 		pool.reconfigure(pc);
-		assertEquals(2, pool.getConfiguration().getPoolSize());
+		assertEquals(1, pool.getConfiguration().getPoolSize());
+		try {
+			pool.borrowConnection();
+			fail("Borrowed connection while the pool was shrinking!");
+		} catch(SQLException expected) { }
+		
+		c1.close(); // gets retired
+		verify(mc).close();
+		assertTrue(pool.isEmpty());
+		c2.close();
+		assertFalse(pool.isEmpty());
+	}
+	
+	@Test
+	public void a_fair_pool_hands_a_returned_connection_to_the_waiting_thread() throws Exception {
+		PoolConfig pc = new PoolConfig(1);
+		pc.setFairQueue(true);
+		final ConnectionPool pool = new ConnectionPool(mcf, pc);
+		Connection c = pool.borrowConnection();
+		final CountDownLatch borrowed = new CountDownLatch(1);
+		new Thread(new Runnable() {
+			public void run() {
+				try {
+					pool.borrowConnection(1, TimeUnit.SECONDS);
+					borrowed.countDown();
+				} catch (SQLException ignore) { }
+			}
+		}).start();
+		TimeUnit.MILLISECONDS.sleep(20);
+		c.close();
+		assertTrue(borrowed.await(1, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void with_direct_handoff_a_returned_connection_skips_the_available_queue() throws Exception {
+		PoolConfig pc = new PoolConfig(1);
+		pc.setDirectHandoff(true);
+		final ConnectionPool pool = new ConnectionPool(mcf, pc);
+		Connection c = pool.borrowConnection();
+		final AtomicReference<Connection> borrowed = new AtomicReference<Connection>();
+		Thread waiter = new Thread(new Runnable() {
+			public void run() {
+				try {
+					borrowed.set(pool.borrowConnection(1, TimeUnit.SECONDS));
+				} catch (SQLException ignore) { }
+			}
+		});
+		waiter.start();
+		for (int i = 0; i < 1000 && pool.getWaitingThreads() == 0; i++) {
+			TimeUnit.MILLISECONDS.sleep(1);
+		}
+		c.close();
+		waiter.join(1000);
+		
+		assertNotNull(borrowed.get());
+		assertTrue("The connection never went to the pool", pool.isEmpty());
+		assertEquals(0, pool.getMetrics().getIdleConnections());
+		assertEquals(0, pool.getAvailablePermits());
+		borrowed.get().close();
+		assertEquals(1, pool.getAvailablePermits());
+		verify(mcf).create();
+	}
+	
+	@Test
+	public void with_lifo_order_the_last_returned_connection_gets_borrowed_first() throws SQLException {
+		Connection mc1 = mock(Connection.class);
+		Connection mc2 = mock(Connection.class);
+		when(mcf.create()).thenReturn(mc1, mc2);
+		PoolConfig pc = new PoolConfig(2);
+		pc.setIdleOrder(IdleOrder.LIFO);
+		pc.setValidateOnBorrow(false);
+		ConnectionPool pool = new ConnectionPool(mcf, pc);
+		Connection c1 = pool.borrowConnection();
+		Connection c2 = pool.borrowConnection();
+		c1.close();
+		c2.close();
+		
+		pool.borrowConnection().unwrap(Connection.class);
+		verify(mc2).unwrap(Connection.class);
+		verify(mc1, never()).unwrap(Connection.class);
+	}
+	
+	@Test
+	public void with_fifo_order_the_first_returned_connection_gets_borrowed_first() throws SQLException {
+		Connection mc1 = mock(Connection.class);
+		Connection mc2 = mock(Connection.class);
+		when(mcf.create()).thenReturn(mc1, mc2);
+		PoolConfig pc = new PoolConfig(2);
+		pc.setValidateOnBorrow(false);
+		ConnectionPool pool = new ConnectionPool(mcf, pc);
+		Connection c1 = pool.borrowConnection();
+		Connection c2 = pool.borrowConnection();
+		c1.close();
+		c2.close();
+		
+		pool.borrowConnection().unwrap(Connection.class);
+		verify(mc1).unwrap(Connection.class);
+		verify(mc2, never()).unwrap(Connection.class);
+	}
+	
+	@Test
+	public void with_adaptive_sizing_the_pool_grows_when_borrowers_wait() throws Exception {
+		PoolConfig pc = new PoolConfig(1);
+		pc.setAdaptiveSizing(true);
+		pc.setMaxPoolSize(2);
+		pc.setSizingInterval(Duration.millis(20));
+		final ConnectionPool pool = new ConnectionPool(mcf, pc);
+		pool.init();
+		try {
+			Connection c = pool.borrowConnection();
+			Connection c2 = pool.borrowConnection(1, TimeUnit.SECONDS);
+			assertEquals(2, pool.getPoolSize());
+			c.close();
+			c2.close();
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	@Test
+	public void disabling_adaptive_sizing_restores_the_configured_size() throws Exception {
+		PoolConfig pc = new PoolConfig(1);
+		pc.setAdaptiveSizing(true);
+		pc.setMaxPoolSize(2);
+		pc.setSizingInterval(Duration.millis(20));
+		final ConnectionPool pool = new ConnectionPool(mcf, pc);
+		pool.init();
+		try {
+			Connection c = pool.borrowConnection();
+			Connection c2 = pool.borrowConnection(1, TimeUnit.SECONDS);
+			assertEquals(2, pool.getPoolSize());
+			c.close();
+			c2.close();
+			
+			PoolConfig fixed = pool.getConfiguration();
+			fixed.setAdaptiveSizing(false);
+			pool.reconfigure(fixed);
+			assertEquals(1, pool.getPoolSize());
+			assertEquals(1, pool.getConfiguration().getPoolSize());
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	@Test
+	public void an_async_borrow_completes_when_a_connection_gets_returned() throws Exception {
+		ConnectionPool pool = new ConnectionPool(mcf, new PoolConfig(1));
+		Connection c = pool.borrowConnection();
+		BorrowFuture future = pool.borrowConnectionAsync(1, TimeUnit.SECONDS);
+		final CountDownLatch notified = new CountDownLatch(1);
+		future.addListener(new Runnable() {
+			public void run() {
+				notified.countDown();
+			}
+		}, new Executor() {
+			public void execute(Runnable r) {
+				r.run();
+			}
+		});
+		assertFalse(future.isDone());
+		assertEquals(1, pool.getWaitingThreads());
+		
+		c.close();
+		assertTrue(notified.await(1, TimeUnit.SECONDS));
+		Connection c2 = future.get();
+		assertFalse(c2.isClosed());
+		c2.close();
+		verify(mcf).create();
+		pool.shutdown();
+	}
+	
+	@Test
+	public void an_async_borrow_fails_after_the_timeout() throws Exception {
+		ConnectionPool pool = new ConnectionPool(mcf, new PoolConfig(1));
+		Connection c = pool.borrowConnection();
+		BorrowFuture future = pool.borrowConnectionAsync(10, TimeUnit.MILLISECONDS);
+		try {
+			future.get(1, TimeUnit.SECONDS);
+			fail("Expected ExecutionException");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof SQLException);
+		}
+		assertEquals(1, pool.getMetrics().getTimeouts());
+		assertEquals(0, pool.getWaitingThreads());
+		c.close();
+		assertEquals("The permit was not lost", 1, pool.getAvailablePermits());
+		pool.shutdown();
+	}
+	
+	@Test
+	public void an_async_borrow_fails_after_the_pool_is_shut_down() throws Exception {
+		ConnectionPool pool = new ConnectionPool(mcf, new PoolConfig(1));
+		pool.borrowConnectionAsync().get().close();
+		pool.shutdown();
+		BorrowFuture future = pool.borrowConnectionAsync(1, TimeUnit.SECONDS);
+		assertTrue(future.isDone());
+		try {
+			future.get();
+			fail("Expected ExecutionException");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof SQLException);
+		}
+		assertEquals(0, pool.getWaitingThreads());
+		assertEquals(0, pool.getMetrics().getTimeouts());
+	}
+	
+	@Test
+	public void a_waiting_async_borrow_can_be_cancelled() throws Exception {
+		ConnectionPool pool = new ConnectionPool(mcf, new PoolConfig(1));
+		Connection c = pool.borrowConnection();
+		BorrowFuture future = pool.borrowConnectionAsync(1, TimeUnit.SECONDS);
+		assertTrue(future.cancel(false));
+		assertTrue(future.isCancelled());
+		assertFalse(future.cancel(false));
+		c.close();
+		assertEquals(1, pool.getAvailablePermits());
+		pool.shutdown();
+	}
+	
+	@Test
+	public void with_async_return_the_connection_gets_validated_by_a_pool_thread() throws Exception {
+		final CountDownLatch validating = new CountDownLatch(1);
+		final CountDownLatch proceed = new CountDownLatch(1);
+		final String[] validator = new String[1];
+		when(mc.isValid(anyInt())).thenAnswer(new Answer<Boolean>() {
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				validator[0] = Thread.currentThread().getName();
+				validating.countDown();
+				return proceed.await(1, TimeUnit.SECONDS);
+			}
+		});
+		PoolConfig pc = new PoolConfig(1);
+		pc.setAsyncReturn(true);
+		pc.setValidateOnBorrow(false);
+		pc.setValidateOnReturn(true);
+		ConnectionPool pool = new ConnectionPool(mcf, pc);
+		
+		pool.borrowConnection().close();
+		assertTrue(validating.await(1, TimeUnit.SECONDS));
+		assertEquals("Pool-Returner", validator[0]);
+		try {
+			pool.borrowConnection(10, TimeUnit.MILLISECONDS);
+			fail("The permit must be held until the returned connection is processed");
+		} catch (SQLException expected) { }
+		
+		proceed.countDown();
+		pool.borrowConnection(1, TimeUnit.SECONDS).close();
+		verify(mcf).create();
+		pool.shutdown();
+	}
+	
+	@Test
+	public void with_async_return_a_full_queue_gets_the_connection_processed_by_the_caller() throws Exception {
+		final CountDownLatch proceed = new CountDownLatch(1);
+		final List<String> validators = Collections.synchronizedList(new ArrayList<String>());
+		Connection mc1 = mock(Connection.class);
+		Connection mc2 = mock(Connection.class);
+		Connection mc3 = mock(Connection.class);
+		when(mcf.create()).thenReturn(mc1, mc2, mc3);
+		when(mc1.isValid(anyInt())).thenAnswer(new Answer<Boolean>() {
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				validators.add(Thread.currentThread().getName());
+				return proceed.await(1, TimeUnit.SECONDS);
+			}
+		});
+		Answer<Boolean> valid = new Answer<Boolean>() {
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				validators.add(Thread.currentThread().getName());
+				return true;
+			}
+		};
+		when(mc2.isValid(anyInt())).thenAnswer(valid);
+		when(mc3.isValid(anyInt())).thenAnswer(valid);
+		PoolConfig pc = new PoolConfig(3);
+		pc.setAsyncReturn(true);
+		pc.setReturnQueueCapacity(1);
+		pc.setValidateOnBorrow(false);
+		pc.setValidateOnReturn(true);
+		ConnectionPool pool = new ConnectionPool(mcf, pc);
+		Connection c1 = pool.borrowConnection();
+		Connection c2 = pool.borrowConnection();
+		Connection c3 = pool.borrowConnection();
+		
+		c1.close(); // blocks the returner thread
+		while (validators.isEmpty()) {
+			TimeUnit.MILLISECONDS.sleep(1);
+		}
+		c2.close(); // waits in the queue
+		assertEquals(1, pool.getReturnQueueDepth());
+		c3.close(); // the queue is full
+		assertEquals(Thread.currentThread().getName(), validators.get(1));
+		
+		proceed.countDown();
+		pool.shutdown();
+		assertEquals(0, pool.getReturnQueueDepth());
+		assertEquals(3, validators.size());
+	}
+	
+	@Test
+	public void with_prefill_the_pool_creates_min_idle_connections_on_init() throws Exception {
+		PoolConfig pc = new PoolConfig(5);
+		pc.setMinIdle(3);
+		pc.setPrefill(true);
+		ConnectionPool pool = new ConnectionPool(mcf, pc);
+		pool.init();
+		try {
+			awaitConnectionsCreated(3);
+			Connection c1 = pool.borrowConnection();
+			Connection c2 = pool.borrowConnection();
+			Connection c3 = pool.borrowConnection();
+			// the filler replaces the borrowed connections
+			awaitConnectionsCreated(5);
+			TimeUnit.MILLISECONDS.sleep(20);
+			verify(mcf, times(5)).create();
+			c1.close();
+			c2.close();
+			c3.close();
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	@Test
+	public void with_limited_creations_a_waiting_borrower_gets_a_returned_connection() throws Exception {
+		final CountDownLatch creating = new CountDownLatch(1);
+		final CountDownLatch proceed = new CountDownLatch(1);
+		final Connection mc2 = mock(Connection.class);
+		when(mcf.create()).thenReturn(mc).thenAnswer(new Answer<Connection>() {
+			public Connection answer(InvocationOnMock invocation) throws Throwable {
+				creating.countDown();
+				proceed.await(1, TimeUnit.SECONDS);
+				return mc2;
+			}
+		});
+		PoolConfig pc = new PoolConfig(3);
+		pc.setMaxConcurrentCreations(1);
+		pc.setValidateOnBorrow(false);
+		final ConnectionPool pool = new ConnectionPool(mcf, pc);
+		Connection c = pool.borrowConnection();
+		
+		final CountDownLatch borrowed = new CountDownLatch(2);
+		final List<Connection> connections = Collections.synchronizedList(new ArrayList<Connection>());
+		Runnable borrower = new Runnable() {
+			public void run() {
+				try {
+					connections.add(pool.borrowConnection());
+					borrowed.countDown();
+				} catch (SQLException ignore) { }
+			}
+		};
+		new Thread(borrower).start();
+		assertTrue(creating.await(1, TimeUnit.SECONDS));
+		new Thread(borrower).start();
+		TimeUnit.MILLISECONDS.sleep(20);
+		
+		c.close(); // handed to the borrower that waits for the creation
+		while (connections.isEmpty()) {
+			TimeUnit.MILLISECONDS.sleep(1);
+		}
+		connections.get(0).clearWarnings();
+		verify(mc).clearWarnings();
+		
+		proceed.countDown();
+		assertTrue(borrowed.await(1, TimeUnit.SECONDS));
+		connections.get(1).clearWarnings();
+		verify(mc2).clearWarnings();
+		verify(mcf, times(2)).create();
+	}
+	
+	@Test
+	public void with_limited_creations_a_waiting_borrower_times_out_at_its_own_timeout() throws Exception {
+		final CountDownLatch creating = new CountDownLatch(1);
+		final CountDownLatch proceed = new CountDownLatch(1);
+		when(mcf.create()).thenAnswer(new Answer<Connection>() {
+			public Connection answer(InvocationOnMock invocation) throws Throwable {
+				creating.countDown();
+				proceed.await(1, TimeUnit.SECONDS);
+				return mc;
+			}
+		});
+		PoolConfig pc = new PoolConfig(2);
+		pc.setMaxConcurrentCreations(1);
+		pc.setValidateOnBorrow(false);
+		pc.setConnectionTimeout(Duration.minutes(1));
+		final ConnectionPool pool = new ConnectionPool(mcf, pc);
+		new Thread(new Runnable() {
+			public void run() {
+				try {
+					pool.borrowConnection();
+				} catch (SQLException ignore) { }
+			}
+		}).start();
+		assertTrue(creating.await(1, TimeUnit.SECONDS));
+		
+		long start = System.nanoTime();
+		try {
+			pool.borrowConnection(20, TimeUnit.MILLISECONDS);
+			fail("Expected timeout");
+		} catch (SQLException expected) { }
+		assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+		assertEquals(1, pool.getMetrics().getTimeouts());
+		proceed.countDown();
+	}
+	
+	@Test
+	public void with_limited_creations_connections_are_not_created_concurrently() throws Exception {
+		final AtomicInteger creating = new AtomicInteger();
+		final AtomicInteger maxCreating = new AtomicInteger();
+		when(mcf.create()).thenAnswer(new Answer<Connection>() {
+			public Connection answer(InvocationOnMock invocation) throws Throwable {
+				int c = creating.incrementAndGet();
+				if (c > maxCreating.get()) maxCreating.set(c);
+				TimeUnit.MILLISECONDS.sleep(5);
+				creating.decrementAndGet();
+				return mock(Connection.class);
+			}
+		});
+		PoolConfig pc = new PoolConfig(8);
+		pc.setMaxConcurrentCreations(2);
+		pc.setValidateOnBorrow(false);
+		final ConnectionPool pool = new ConnectionPool(mcf, pc);
+		final CountDownLatch borrowed = new CountDownLatch(8);
+		for (int i = 0; i < 8; i++) {
+			new Thread(new Runnable() {
+				public void run() {
+					try {
+						pool.borrowConnection();
+						borrowed.countDown();
+					} catch (SQLException ignore) { }
+				}
+			}).start();
+		}
+		assertTrue(borrowed.await(2, TimeUnit.SECONDS));
+		assertTrue(maxCreating.get() <= 2);
+		verify(mcf, times(8)).create();
+	}
+	
+	@Test
+	public void the_pool_records_metrics() throws SQLException {
+		PoolConfig pc = new PoolConfig(1);
+		pc.setValidateOnReturn(true);
+		ConnectionPool pool = new ConnectionPool(mcf, pc);
+		pool.borrowConnection().close();
+		Connection c = pool.borrowConnection();
+		try {
+			pool.borrowConnection(1, TimeUnit.MILLISECONDS);
+			fail("Expected timeout");
+		} catch (SQLException expected) { }
+		when(mc.isValid(anyInt())).thenReturn(false);
+		c.close();
+		
+		PoolMetrics metrics = pool.getMetrics();
+		assertEquals(2, metrics.getBorrows());
+		assertEquals(1, metrics.getTimeouts());
+		assertEquals(1, metrics.getCreations());
+		assertEquals(4, metrics.getValidations());
+		assertEquals(1, metrics.getValidationFailures());
+		assertEquals(1, metrics.getDiscards());
+		assertEquals(2, metrics.getHoldTime().getCount());
+		assertEquals(2, metrics.getResetTime().getCount());
+		assertTrue(metrics.getBorrowWaitTime().getMax() > 0);
+		assertEquals(0, metrics.getActiveConnections());
+		assertEquals(1, metrics.getMaxActiveConnections());
+		assertEquals(0, metrics.getIdleConnections());
+		assertEquals(0, metrics.getTotalConnections());
+	}
+	
+	@Test
+	public void the_idle_count_follows_the_borrows_and_the_returns() throws SQLException {
+		PoolConfig pc = new PoolConfig(3);
+		pc.setThreadAffinity(true);
+		ConnectionPool pool = new ConnectionPool(mcf, pc);
+		PoolMetrics metrics = pool.getMetrics();
+		Connection c1 = pool.borrowConnection();
+		Connection c2 = pool.borrowConnection();
+		Connection c3 = pool.borrowConnection();
+		c1.close();
+		c2.close();
+		assertEquals(2, metrics.getIdleConnections());
+		pool.borrowConnection();
+		assertEquals(1, metrics.getIdleConnections());
+		c3.close();
+		assertEquals(2, metrics.getIdleConnections());
+	}
+	
+	@Test
+	public void the_statements_left_open_get_closed_when_the_connection_is_returned() throws SQLException {
+		Statement ms = mock(Statement.class);
+		when(mc.createStatement()).thenReturn(ms);
+		ConnectionPool pool = new ConnectionPool(mcf, new PoolConfig(1));
+		Connection c = pool.borrowConnection();
+		Statement s = c.createStatement();
+		c.close();
+		
+		verify(ms).close();
+		assertEquals(1, pool.getMetrics().getStatementsLeftOpen());
+		s.close(); // has no effect, the statement was closed by the pool
+		verify(ms, times(1)).close();
+	}
+	
+	@Test
+	public void a_connection_borrowed_for_longer_than_the_threshold_gets_reported() throws Exception {
+		PoolConfig pc = new PoolConfig(1);
+		pc.setLeakDetectionThreshold(Duration.millis(10));
+		pc.setLeakTraceSampleRate(1);
+		ConnectionPool pool = new ConnectionPool(mcf, pc);
+		Connection c = pool.borrowConnection();
+		TimeUnit.MILLISECONDS.sleep(20);
+		pool.scheduleLeakDetection(0, TimeUnit.MILLISECONDS);
+		pool.scheduleLeakDetection(0, TimeUnit.MILLISECONDS);
+		TimeUnit.MILLISECONDS.sleep(50);
+		
+		assertEquals("Reported once", 1, pool.getMetrics().getLeaks());
+		assertEquals(0, pool.getMetrics().getReclaims());
+		assertFalse(c.isClosed());
+		c.close();
+	}
+	
+	@Test
+	public void a_leaked_connection_gets_reclaimed() throws Exception {
+		PoolConfig pc = new PoolConfig(1);
+		pc.setLeakDetectionThreshold(Duration.millis(10));
+		pc.setReclaimLeakedConnections(true);
+		ConnectionPool pool = new ConnectionPool(mcf, pc);
+		Connection leaked = pool.borrowConnection();
+		TimeUnit.MILLISECONDS.sleep(20);
+		pool.scheduleLeakDetection(0, TimeUnit.MILLISECONDS);
+		TimeUnit.MILLISECONDS.sleep(50);
+		
+		assertEquals(1, pool.getMetrics().getReclaims());
+		assertTrue(leaked.isClosed());
+		verify(mc).close();
+		
+		Connection c = pool.borrowConnection(10, TimeUnit.MILLISECONDS);
+		leaked.close(); // has no effect, the connection was reclaimed
+		assertEquals(1, pool.getMetrics().getActiveConnections());
+		assertFalse(c.isClosed());
+		c.close();
+	}
+	
+	@Test
+	public void an_unreachable_connection_gets_returned_to_the_pool() throws Exception {
+		ConnectionPool pool = new ConnectionPool(mcf, new PoolConfig(1));
+		pool.borrowConnection(); // never closed
+		for (int i = 0; i < 100 && pool.getMetrics().getUnreachableReclaims() == 0; i++) {
+			System.gc();
+			TimeUnit.MILLISECONDS.sleep(10);
+			pool.collectUnreachableConnections();
+		}
+		assertEquals(1, pool.getMetrics().getUnreachableReclaims());
+		assertEquals(0, pool.getMetrics().getActiveConnections());
+		pool.borrowConnection(10, TimeUnit.MILLISECONDS).close();
+		verify(mcf).create();
+	}
+	
+	@Test
+	public void a_closed_connection_does_not_get_reclaimed_when_unreachable() throws Exception {
+		ConnectionPool pool = new ConnectionPool(mcf, new PoolConfig(1));
+		pool.borrowConnection().close();
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			TimeUnit.MILLISECONDS.sleep(10);
+			pool.collectUnreachableConnections();
+		}
+		assertEquals(0, pool.getMetrics().getUnreachableReclaims());
+	}
+	
+	private void awaitConnectionsCreated(int count) throws Exception {
+		for (int i = 0; i < 1000; i++) {
+			try {
+				verify(mcf, times(count)).create();
+				return;
+			} catch (AssertionError e) {
+				TimeUnit.MILLISECONDS.sleep(1);
+			}
+		}
+		verify(mcf, times(count)).create();
+	}
+	
+	/**
+	 * Create valid mocked connections, named mc1, mc2 and so on, that the
+	 * mocked factory returns in that order.
+	 */
+	private Connection[] mockConnections(int count) throws SQLException {
+		Connection[] mcs = new Connection[count];
+		for (int i = 0; i < count; i++) {
+			mcs[i] = mock(Connection.class, "mc" + (i + 1));
+			when(mcs[i].isValid(anyInt())).thenReturn(true);
+		}
+		when(mcf.create()).thenReturn(mcs[0], Arrays.copyOfRange(mcs, 1, count));
+		return mcs;
+	}
+	
+	private Connection[] borrow(ConnectionPool pool, int count) throws SQLException {
+		Connection[] cs = new Connection[count];
+		for (int i = 0; i < count; i++) {
+			cs[i] = pool.borrowConnection();
+		}
+		return cs;
+	}
+	
+	private void close(Connection... cs) throws SQLException {
+		for (Connection c : cs) {
+			c.close();
+		}
+	}
+	
+	/**
+	 * Borrow a connection, without returning it, and verify that its
+	 * physical connection is the specified one.
+	 */
+	private void assertNextBorrowed(ConnectionPool pool, Connection expected) throws SQLException {
+		pool.borrowConnection().getCatalog();
+		verify(expected).getCatalog();
 	}
-}
\ No newline at end of file
+}
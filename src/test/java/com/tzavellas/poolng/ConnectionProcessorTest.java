@@ -15,7 +15,7 @@ public class ConnectionProcessorTest {
 	@Test
 	public void apply_default_properties_to_connection_using_default_pool_config() throws SQLException {
 		Connection mc = mock(Connection.class);
-		proc.applyDefaults(mc, new PoolConfig());
+		proc.applyDefaults(new ConnectionHolder(mc), new PoolConfig());
 		verify(mc).setAutoCommit(PoolConfig.DEFAULT_AUTOCOMMIT);
 	}
 	
@@ -27,7 +27,7 @@ public class ConnectionProcessorTest {
 		config.setDefaultIsolation(TxIsolation.REPEATABLE_READ);
 		config.setDefaultReadOnly(false);
 		config.setDefaultCatalog("e-shop");
-		proc.applyDefaults(mc, config);
+		proc.applyDefaults(new ConnectionHolder(mc), config);
 		
 		verify(mc).setAutoCommit(false);
 		verify(mc).setReadOnly(false);
@@ -35,11 +35,45 @@ public class ConnectionProcessorTest {
 		verify(mc).setCatalog("e-shop");
 	}
 	
+	@Test
+	public void only_the_changed_properties_get_applied() throws SQLException {
+		Connection mc = mock(Connection.class);
+		PoolConfig config = new PoolConfig();
+		config.setDefaultAutocommit(false);
+		config.setDefaultIsolation(TxIsolation.REPEATABLE_READ);
+		config.setDefaultReadOnly(false);
+		config.setDefaultCatalog("e-shop");
+		ConnectionHolder ch = new ConnectionHolder(mc);
+		proc.applyDefaults(ch, config);
+		
+		ch.setReadOnly(true); // changed by a client
+		proc.applyDefaults(ch, config);
+		
+		verify(mc, times(1)).setAutoCommit(false);
+		verify(mc, times(2)).setReadOnly(false);
+		verify(mc, times(1)).setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+		verify(mc, times(1)).setCatalog("e-shop");
+	}
+	
+	@Test
+	public void the_state_becomes_unknown_when_applyDefaults_fails() throws SQLException {
+		Connection mc = mock(Connection.class);
+		doThrow(new SQLException()).when(mc).setReadOnly(false);
+		PoolConfig config = new PoolConfig();
+		config.setDefaultReadOnly(false);
+		ConnectionHolder ch = new ConnectionHolder(mc);
+		try {
+			proc.applyDefaults(ch, config);
+			fail("Expected SQLException");
+		} catch (SQLException expected) { }
+		assertNull(ch.getAutoCommit());
+	}
+	
 	@Test(expected=SQLException.class)
 	public void applyDefaults_does_not_catch_exceptions() throws SQLException {
 		Connection mc = mock(Connection.class);
 		doThrow(new SQLException()).when(mc).setAutoCommit(PoolConfig.DEFAULT_AUTOCOMMIT);
-		proc.applyDefaults(mc, new PoolConfig());
+		proc.applyDefaults(new ConnectionHolder(mc), new PoolConfig());
 	}
 	
 	@Test
@@ -78,6 +112,52 @@ public class ConnectionProcessorTest {
 		verify(mc).rollback();
 	}
 
+	@Test
+	public void reset_of_a_holder_without_warnings_and_transaction_does_nothing() throws SQLException {
+		Connection mc = mock(Connection.class);
+		assertTrue(proc.reset(new ConnectionHolder(mc)));
+		verifyZeroInteractions(mc);
+	}
+	
+	@Test
+	public void reset_of_a_holder_rolls_back_an_active_transaction() throws SQLException {
+		Connection mc = mock(Connection.class);
+		ConnectionHolder ch = new ConnectionHolder(mc);
+		ch.setWarnings(true);
+		ch.setAutoCommit(false);
+		ch.transactionStarted();
+		
+		assertTrue(proc.reset(ch));
+		verify(mc).clearWarnings();
+		verify(mc).rollback();
+		verify(mc, never()).getAutoCommit();
+		assertFalse(ch.isTransactionActive());
+		assertFalse(ch.hasWarnings());
+	}
+	
+	@Test
+	public void reset_of_a_holder_in_autocommit_mode_does_not_roll_back() throws SQLException {
+		Connection mc = mock(Connection.class);
+		when(mc.getAutoCommit()).thenReturn(true);
+		ConnectionHolder ch = new ConnectionHolder(mc);
+		ch.transactionStarted();
+		
+		assertTrue(proc.reset(ch));
+		verify(mc, never()).rollback();
+	}
+	
+	@Test
+	public void reset_of_a_holder_with_unknown_transaction_state_is_a_full_reset() throws SQLException {
+		Connection mc = mock(Connection.class);
+		ConnectionHolder ch = new ConnectionHolder(mc);
+		ch.setTransactionActive(null);
+		
+		assertTrue(proc.reset(ch));
+		verify(mc).clearWarnings();
+		verify(mc).rollback();
+		assertFalse(ch.isTransactionActive());
+	}
+	
 	@Test(expected=IllegalArgumentException.class)
 	public void isValid_expects_timeout_to_last_more_thatn_one_second() {
 		proc.isValid(null, Duration.millis(400));
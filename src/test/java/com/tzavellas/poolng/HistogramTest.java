@@ -0,0 +1,64 @@
+package com.tzavellas.poolng;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class HistogramTest {
+	
+	Histogram h = new Histogram();
+	
+	@Test
+	public void an_empty_histogram_has_zero_statistics() {
+		assertEquals(0, h.getCount());
+		assertEquals(0, h.getMax());
+		assertEquals(0, h.getMean(), 0);
+		assertEquals(0, h.getValueAtPercentile(99));
+	}
+	
+	@Test
+	public void small_values_are_recorded_exactly() {
+		for (int i = 1; i <= 10; i++) {
+			h.record(i);
+		}
+		assertEquals(10, h.getCount());
+		assertEquals(55, h.getSum());
+		assertEquals(10, h.getMax());
+		assertEquals(5.5, h.getMean(), 0.001);
+		assertEquals(5, h.getValueAtPercentile(50));
+		assertEquals(10, h.getValueAtPercentile(100));
+	}
+	
+	@Test
+	public void large_values_are_recorded_with_bounded_error() {
+		for (long v = 1000; v <= 1000000000L; v *= 10) {
+			h.record(v);
+			long bucketed = Histogram.highestValueOf(Histogram.indexOf(v));
+			assertTrue(bucketed >= v);
+			assertTrue(bucketed - v <= v / 16);
+		}
+		assertEquals(1000000000L, h.getMax());
+		assertEquals(1000000000L, h.getValueAtPercentile(100));
+	}
+	
+	@Test
+	public void the_buckets_cover_all_the_positive_longs() {
+		assertEquals(Long.MAX_VALUE, Histogram.highestValueOf(Histogram.indexOf(Long.MAX_VALUE)));
+		for (int i = 1; i < Histogram.indexOf(Long.MAX_VALUE); i++) {
+			assertEquals(i, Histogram.indexOf(Histogram.highestValueOf(i)));
+			assertEquals(i, Histogram.indexOf(Histogram.highestValueOf(i - 1) + 1));
+		}
+	}
+	
+	@Test
+	public void negative_values_are_recorded_as_zero() {
+		h.record(-5);
+		assertEquals(1, h.getCount());
+		assertEquals(0, h.getMax());
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void percentile_must_be_at_most_100() {
+		h.getValueAtPercentile(101);
+	}
+}
@@ -4,6 +4,8 @@ import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Properties;
 
@@ -25,6 +27,66 @@ public class PooledConnectionTest {
 		verify(mp).returnConnection(ch);
 	}
 	
+	@Test
+	public void closing_a_connection_twice_returns_it_to_the_pool_once() throws SQLException {
+		Connection mc = mock(Connection.class);
+		ConnectionPool mp = mock(ConnectionPool.class);
+		
+		ConnectionHolder ch = new ConnectionHolder(mc);
+		ch.setBorrowed();
+		PooledConnection c = new PooledConnection(ch, mp);
+		c.close();
+		c.close();
+		
+		verify(mp, times(1)).returnConnection(ch);
+	}
+	
+	@Test
+	public void a_connection_appears_closed_when_its_lease_has_ended() throws SQLException {
+		Connection mc = mock(Connection.class);
+		ConnectionPool mp = mock(ConnectionPool.class);
+		
+		ConnectionHolder ch = new ConnectionHolder(mc);
+		ch.setBorrowed();
+		PooledConnection c = new PooledConnection(ch, mp);
+		assertTrue(ch.endLease(ch.getLease()));
+		
+		assertTrue(c.isClosed());
+		try {
+			c.createStatement();
+			fail("Expected SQLException");
+		} catch (SQLException expected) { }
+		c.close();
+		verify(mp, never()).returnConnection(ch);
+	}
+	
+	@Test
+	public void closed_prepared_statements_get_reused_when_the_statement_cache_is_enabled() throws SQLException {
+		Connection mc = mock(Connection.class);
+		PreparedStatement ps = mock(PreparedStatement.class);
+		when(mc.prepareStatement("select 1", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).thenReturn(ps);
+		ConnectionPool mp = mock(ConnectionPool.class);
+		
+		ConnectionHolder ch = new ConnectionHolder(mc);
+		ch.setStatementCache(new StatementCache(1, new PoolMetrics()));
+		PooledConnection c = new PooledConnection(ch, mp);
+		
+		PreparedStatement s1 = c.prepareStatement("select 1");
+		s1.close();
+		assertTrue(s1.isClosed());
+		try {
+			s1.executeQuery();
+			fail("Expected SQLException");
+		} catch (SQLException expected) { }
+		
+		PreparedStatement s2 = c.prepareStatement("select 1");
+		s2.executeQuery();
+		
+		verify(mc, times(1)).prepareStatement("select 1", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		verify(ps, times(1)).executeQuery();
+		verify(ps, never()).close();
+	}
+	
 	@Test
 	public void a_connection_is_invalid_after_being_closed() throws SQLException {
 		Connection mc = mock(Connection.class);
@@ -39,6 +101,38 @@ public class PooledConnectionTest {
 		assertFalse("The connection should be invalid after closed", c.isValid(0));
 	}
 	
+	@Test
+	public void the_setters_record_the_state_of_the_connection_in_the_holder() throws SQLException {
+		Connection mc = mock(Connection.class);
+		ConnectionPool mp = mock(ConnectionPool.class);
+		
+		ConnectionHolder ch = new ConnectionHolder(mc);
+		PooledConnection c = new PooledConnection(ch, mp);
+		c.setAutoCommit(true);
+		c.setReadOnly(true);
+		c.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+		c.setCatalog("catalog");
+		
+		assertEquals(Boolean.TRUE, ch.getAutoCommit());
+		assertEquals(Boolean.TRUE, ch.getReadOnly());
+		assertEquals(Integer.valueOf(Connection.TRANSACTION_SERIALIZABLE), ch.getTransactionIsolation());
+		assertEquals("catalog", ch.getCatalog());
+	}
+	
+	@Test
+	public void a_failed_setter_makes_the_state_unknown() throws SQLException {
+		Connection mc = mock(Connection.class);
+		doThrow(new SQLException()).when(mc).setAutoCommit(false);
+		ConnectionHolder ch = new ConnectionHolder(mc);
+		ch.setAutoCommit(true);
+		PooledConnection c = new PooledConnection(ch, mock(ConnectionPool.class));
+		try {
+			c.setAutoCommit(false);
+			fail("Expected SQLException");
+		} catch (SQLException expected) { }
+		assertNull(ch.getAutoCommit());
+	}
+	
 	@Test
 	public void test_after_close_schemantics() throws SQLException {
 		Connection mc = mock(Connection.class);
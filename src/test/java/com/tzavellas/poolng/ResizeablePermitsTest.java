@@ -0,0 +1,352 @@
+package com.tzavellas.poolng;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class ResizeablePermitsTest {
+	
+	@Test
+	public void size_equals_available_plus_acquired_permits() throws Exception {
+		ResizeablePermits permits = new ResizeablePermits(10);
+		assertEquals(10, permits.size());
+		permits.acquire();
+		assertEquals(9, permits.availablePermits());
+		assertEquals(10, permits.size());
+	}
+	
+	@Test
+	public void acquire_fails_after_timeout_when_no_permits_available() throws Exception {
+		ResizeablePermits permits = new ResizeablePermits(1);
+		assertTrue(permits.tryAcquire(1, TimeUnit.MILLISECONDS));
+		assertFalse(permits.tryAcquire(1, TimeUnit.MILLISECONDS));
+		assertFalse(permits.tryAcquire());
+		assertEquals(0, permits.getQueueLength());
+	}
+	
+	@Test
+	public void a_released_permit_is_handed_to_the_waiting_thread() throws Exception {
+		final ResizeablePermits permits = new ResizeablePermits(1);
+		permits.acquire();
+		Thread waiter = startWaiter(permits, new AtomicBoolean());
+		awaitQueueLength(permits, 1);
+		permits.release();
+		waiter.join(1000);
+		assertFalse(waiter.isAlive());
+		assertEquals(0, permits.availablePermits());
+	}
+	
+	@Test
+	public void in_fair_mode_a_thread_does_not_barge_in_front_of_waiting_threads() throws Exception {
+		ResizeablePermits permits = new ResizeablePermits(1, true);
+		permits.acquire();
+		AtomicBoolean acquired = new AtomicBoolean();
+		Thread waiter = startWaiter(permits, acquired);
+		awaitQueueLength(permits, 1);
+		
+		permits.resize(2); // the new permit goes to the waiting thread
+		waiter.join(1000);
+		assertTrue(acquired.get());
+		assertFalse(permits.tryAcquire());
+	}
+	
+	@Test
+	public void an_item_is_handed_off_with_the_permit_to_the_waiting_thread() throws Exception {
+		final ResizeablePermits permits = new ResizeablePermits(1);
+		permits.acquire();
+		final AtomicReference<Object> received = new AtomicReference<Object>();
+		Thread waiter = new Thread(new Runnable() {
+			public void run() {
+				try {
+					received.set(permits.tryAcquireItem(5, TimeUnit.SECONDS));
+				} catch (InterruptedException ignore) { }
+			}
+		});
+		waiter.start();
+		awaitQueueLength(permits, 1);
+		
+		assertTrue(permits.handOff("item"));
+		waiter.join(1000);
+		assertEquals("item", received.get());
+		assertEquals(0, permits.availablePermits());
+		assertFalse("No waiting thread", permits.handOff("item"));
+	}
+	
+	@Test
+	public void concurrent_hand_offs_give_the_waiting_thread_a_single_item() throws Exception {
+		final int returners = 4;
+		for (int round = 0; round < 300; round++) {
+			final ResizeablePermits permits = new ResizeablePermits(returners);
+			for (int i = 0; i < returners; i++) {
+				permits.acquire();
+			}
+			final AtomicReference<Object> received = new AtomicReference<Object>();
+			Thread waiter = new Thread(new Runnable() {
+				public void run() {
+					try {
+						received.set(permits.tryAcquireItem(5, TimeUnit.SECONDS));
+					} catch (InterruptedException ignore) { }
+				}
+			});
+			waiter.start();
+			awaitQueueLength(permits, 1);
+			
+			final CountDownLatch start = new CountDownLatch(1);
+			final AtomicReference<Object> handedOff = new AtomicReference<Object>();
+			final AtomicInteger handOffs = new AtomicInteger();
+			Thread[] threads = new Thread[returners];
+			for (int i = 0; i < returners; i++) {
+				final String item = "item" + i;
+				threads[i] = new Thread(new Runnable() {
+					public void run() {
+						try {
+							start.await();
+						} catch (InterruptedException ignore) { }
+						if (permits.handOff(item)) {
+							handOffs.incrementAndGet();
+							handedOff.set(item);
+						} else {
+							permits.release();
+						}
+					}
+				});
+				threads[i].start();
+			}
+			start.countDown();
+			for (Thread t : threads) {
+				t.join(5000);
+			}
+			waiter.join(5000);
+			
+			assertEquals(1, handOffs.get());
+			assertEquals(handedOff.get(), received.get());
+			assertEquals(returners - 1, permits.availablePermits());
+		}
+	}
+	
+	@Test
+	public void items_are_not_handed_to_threads_that_do_not_accept_them() throws Exception {
+		ResizeablePermits permits = new ResizeablePermits(1);
+		permits.acquire();
+		AtomicBoolean acquired = new AtomicBoolean();
+		Thread waiter = startWaiter(permits, acquired);
+		awaitQueueLength(permits, 1);
+		
+		assertFalse(permits.handOff("item"));
+		permits.release();
+		waiter.join(1000);
+		assertTrue(acquired.get());
+	}
+	
+	@Test
+	public void acquiring_without_waiting_returns_no_item() throws Exception {
+		ResizeablePermits permits = new ResizeablePermits(1);
+		assertSame(ResizeablePermits.NO_ITEM, permits.tryAcquireItem(1, TimeUnit.MILLISECONDS));
+		assertNull(permits.tryAcquireItem(1, TimeUnit.MILLISECONDS));
+	}
+	
+	@Test
+	public void an_async_request_gets_the_permit_when_released() throws Exception {
+		ResizeablePermits permits = new ResizeablePermits(1, true);
+		permits.acquire();
+		final AtomicReference<Object> received = new AtomicReference<Object>();
+		ResizeablePermits.PermitCallback callback = new ResizeablePermits.PermitCallback() {
+			public void acquired(Object item) {
+				received.set(item);
+			}
+		};
+		permits.acquireAsync(callback);
+		assertNull(received.get());
+		assertEquals(1, permits.getQueueLength());
+		assertFalse("Fair mode, the request is waiting", permits.tryAcquire());
+		
+		permits.release();
+		assertSame(ResizeablePermits.NO_ITEM, received.get());
+		assertEquals(0, permits.getQueueLength());
+		assertEquals(0, permits.availablePermits());
+	}
+	
+	@Test
+	public void a_cancelled_async_request_does_not_get_a_permit() throws Exception {
+		ResizeablePermits permits = new ResizeablePermits(1);
+		permits.acquire();
+		final AtomicBoolean acquired = new AtomicBoolean();
+		Object request = permits.acquireAsync(new ResizeablePermits.PermitCallback() {
+			public void acquired(Object item) {
+				acquired.set(true);
+			}
+		});
+		assertTrue(permits.cancelAsync(request));
+		assertFalse(permits.cancelAsync(request));
+		permits.release();
+		assertFalse(acquired.get());
+		assertEquals(1, permits.availablePermits());
+	}
+	
+	@Test
+	public void a_permits_object_always_can_grow() throws Exception {
+		ResizeablePermits permits = new ResizeablePermits(10);
+		permits.acquire();
+		permits.resize(20);
+		assertEquals(20, permits.size());
+		assertEquals(19, permits.availablePermits());
+	}
+	
+	@Test
+	public void a_permits_object_can_shrink_below_the_acquired_permits() throws Exception {
+		ResizeablePermits permits = new ResizeablePermits(4);
+		permits.acquire();
+		permits.acquire();
+		assertEquals(1, permits.resize(1));
+		assertEquals(1, permits.size());
+		assertEquals(-1, permits.availablePermits());
+		assertFalse(permits.tryAcquire());
+		
+		assertTrue("The extra permit must be retired", permits.tryRetire());
+		assertFalse(permits.tryRetire());
+		permits.release();
+		assertEquals(1, permits.availablePermits());
+	}
+	
+	@Test
+	public void after_a_shrink_the_released_permits_get_retired_before_the_waiting_threads_get_them() throws Exception {
+		ResizeablePermits permits = new ResizeablePermits(2);
+		permits.acquire();
+		permits.acquire();
+		AtomicBoolean acquired = new AtomicBoolean();
+		Thread waiter = startWaiter(permits, acquired);
+		awaitQueueLength(permits, 1);
+		permits.resize(1);
+		
+		permits.release();
+		assertEquals(0, permits.availablePermits());
+		assertEquals(1, permits.getQueueLength());
+		
+		permits.release();
+		waiter.join(1000);
+		assertTrue(acquired.get());
+		assertEquals(0, permits.availablePermits());
+	}
+	
+	@Test
+	public void growing_after_a_shrink_pays_the_retired_permits_first() throws Exception {
+		ResizeablePermits permits = new ResizeablePermits(2);
+		permits.acquire();
+		permits.acquire();
+		permits.resize(0);
+		permits.resize(3);
+		assertEquals(1, permits.availablePermits());
+		assertFalse(permits.tryRetire());
+	}
+	
+	@Test
+	public void growing_while_permits_get_returned_keeps_the_count() throws Exception {
+		final int size = 8;
+		for (int round = 0; round < 200; round++) {
+			final ResizeablePermits permits = new ResizeablePermits(size);
+			for (int i = 0; i < size; i++) {
+				permits.acquire();
+			}
+			permits.resize(0);
+			final CountDownLatch start = new CountDownLatch(1);
+			Thread[] returners = new Thread[size];
+			for (int i = 0; i < size; i++) {
+				returners[i] = new Thread(new Runnable() {
+					public void run() {
+						try {
+							start.await();
+						} catch (InterruptedException ignore) { }
+						if (!permits.tryRetire()) {
+							permits.release();
+						}
+					}
+				});
+				returners[i].start();
+			}
+			start.countDown();
+			permits.resize(size);
+			for (Thread t : returners) {
+				t.join(5000);
+			}
+			assertEquals(size, permits.availablePermits());
+		}
+	}
+	
+	@Test
+	public void drain_acquires_all_available_permits() throws Exception {
+		ResizeablePermits permits = new ResizeablePermits(4);
+		permits.acquire();
+		assertEquals(3, permits.drainPermits());
+		assertEquals(0, permits.drainPermits());
+	}
+	
+	@Test
+	public void negative_size_does_nothing() throws Exception {
+		ResizeablePermits permits = new ResizeablePermits(4);
+		assertEquals(4, permits.resize(-4));
+		assertEquals(4, permits.size());
+	}
+	
+	@Test
+	public void an_interrupted_thread_does_not_wait() throws Exception {
+		ResizeablePermits permits = new ResizeablePermits(0);
+		Thread.currentThread().interrupt();
+		try {
+			permits.tryAcquire(1, TimeUnit.SECONDS);
+			fail("Expected InterruptedException");
+		} catch (InterruptedException expected) { }
+	}
+	
+	@Test
+	public void no_permits_are_lost_under_contention() throws Exception {
+		final ResizeablePermits permits = new ResizeablePermits(3, true);
+		final int threads = 8, iterations = 2000;
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++) {
+			new Thread(new Runnable() {
+				public void run() {
+					try {
+						for (int j = 0; j < iterations; j++) {
+							if (permits.tryAcquire(1, TimeUnit.SECONDS)) {
+								permits.release();
+							}
+						}
+					} catch (InterruptedException ignore) {
+					} finally {
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		assertEquals(3, permits.availablePermits());
+		assertEquals(3, permits.drainPermits());
+	}
+	
+	// -----------------------------------------------------------------------
+	
+	private Thread startWaiter(final ResizeablePermits permits, final AtomicBoolean acquired) {
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				try {
+					acquired.set(permits.tryAcquire(5, TimeUnit.SECONDS));
+				} catch (InterruptedException ignore) { }
+			}
+		});
+		t.start();
+		return t;
+	}
+	
+	private void awaitQueueLength(ResizeablePermits permits, int length) throws InterruptedException {
+		for (int i = 0; i < 1000 && permits.getQueueLength() != length; i++) {
+			Thread.sleep(1);
+		}
+		assertEquals(length, permits.getQueueLength());
+	}
+}
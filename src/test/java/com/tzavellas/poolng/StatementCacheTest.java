@@ -0,0 +1,117 @@
+package com.tzavellas.poolng;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class StatementCacheTest {
+	
+	PoolMetrics metrics = new PoolMetrics();
+	StatementCache cache = new StatementCache(2, metrics);
+	
+	@Test
+	public void a_released_statement_gets_taken_from_the_cache() throws SQLException {
+		StatementCache.Key key = key("select 1");
+		PreparedStatement ps = mock(PreparedStatement.class);
+		
+		assertNull(cache.take(key));
+		cache.release(key, ps);
+		assertSame(ps, cache.take(key));
+		assertNull(cache.take(key));
+		
+		verify(ps).clearParameters();
+		verify(ps, never()).close();
+		assertEquals(1, metrics.getStatementCacheHits());
+		assertEquals(2, metrics.getStatementCacheMisses());
+	}
+	
+	@Test
+	public void the_least_recently_used_statement_gets_closed_when_the_cache_is_full() throws SQLException {
+		PreparedStatement ps1 = mock(PreparedStatement.class);
+		PreparedStatement ps2 = mock(PreparedStatement.class);
+		PreparedStatement ps3 = mock(PreparedStatement.class);
+		
+		cache.release(key("1"), ps1);
+		cache.release(key("2"), ps2);
+		cache.release(key("3"), ps3);
+		
+		verify(ps1).close();
+		verify(ps2, never()).close();
+		assertEquals(2, cache.size());
+		assertEquals(1, metrics.getStatementCacheEvictions());
+	}
+	
+	@Test
+	public void the_evicted_statement_gets_closed_outside_the_lock() throws Exception {
+		PreparedStatement ps1 = mock(PreparedStatement.class);
+		final AtomicInteger sizeWhileClosing = new AtomicInteger(-1);
+		doAnswer(new Answer<Object>() {
+			public Object answer(InvocationOnMock invocation) throws Exception {
+				// another thread can use the cache while the statement is closing
+				FutureTask<Integer> size = new FutureTask<Integer>(new Callable<Integer>() {
+					public Integer call() {
+						return cache.size();
+					}
+				});
+				new Thread(size).start();
+				try {
+					sizeWhileClosing.set(size.get(1, TimeUnit.SECONDS));
+				} catch (TimeoutException e) { }
+				return null;
+			}
+		}).when(ps1).close();
+		
+		cache.release(key("1"), ps1);
+		cache.release(key("2"), mock(PreparedStatement.class));
+		cache.release(key("3"), mock(PreparedStatement.class));
+		
+		verify(ps1).close();
+		assertEquals(2, sizeWhileClosing.get());
+	}
+	
+	@Test
+	public void a_statement_gets_closed_when_its_key_is_already_cached() throws SQLException {
+		PreparedStatement ps1 = mock(PreparedStatement.class);
+		PreparedStatement ps2 = mock(PreparedStatement.class);
+		
+		cache.release(key("1"), ps1);
+		cache.release(key("1"), ps2);
+		
+		verify(ps1, never()).close();
+		verify(ps2).close();
+	}
+	
+	@Test
+	public void clear_closes_all_the_cached_statements() throws SQLException {
+		PreparedStatement ps = mock(PreparedStatement.class);
+		cache.release(key("1"), ps);
+		cache.clear();
+		verify(ps).close();
+		assertEquals(0, cache.size());
+	}
+	
+	@Test
+	public void keys_with_different_result_set_type_are_not_equal() {
+		StatementCache.Key k1 = key("1");
+		StatementCache.Key k2 = new StatementCache.Key("1", false, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY, StatementCache.Key.DEFAULT_HOLDABILITY);
+		assertFalse(k1.equals(k2));
+		assertEquals(k1, key("1"));
+		assertEquals(k1.hashCode(), key("1").hashCode());
+	}
+	
+	private StatementCache.Key key(String sql) {
+		return new StatementCache.Key(sql, false, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, StatementCache.Key.DEFAULT_HOLDABILITY);
+	}
+}
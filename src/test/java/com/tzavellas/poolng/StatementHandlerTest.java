@@ -0,0 +1,167 @@
+package com.tzavellas.poolng;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+
+import org.junit.Test;
+
+public class StatementHandlerTest {
+	
+	Connection mc = mock(Connection.class);
+	ConnectionHolder holder = new ConnectionHolder(mc);
+	PooledConnection connection = new PooledConnection(holder, mock(ConnectionPool.class));
+	
+	@Test
+	public void executing_a_statement_marks_the_transaction_active() throws SQLException {
+		Statement ms = mock(Statement.class);
+		Statement s = StatementHandler.wrap(ms, connection, holder);
+		assertFalse(holder.isTransactionActive());
+		s.executeQuery("SELECT 1");
+		assertTrue(holder.isTransactionActive());
+		verify(ms).executeQuery("SELECT 1");
+	}
+	
+	@Test
+	public void the_statement_returns_the_pooled_connection() throws SQLException {
+		PreparedStatement ps = StatementHandler.wrap(mock(PreparedStatement.class), connection, holder);
+		assertSame(connection, ps.getConnection());
+	}
+	
+	@Test
+	public void exceptions_of_the_target_statement_are_propagated() throws SQLException {
+		CallableStatement mcs = mock(CallableStatement.class);
+		SQLException error = new SQLException("error");
+		doThrow(error).when(mcs).execute();
+		CallableStatement cs = StatementHandler.wrap(mcs, connection, holder);
+		try {
+			cs.execute();
+			fail("Expected SQLException");
+		} catch (SQLException e) {
+			assertSame(error, e);
+		}
+	}
+	
+	@Test
+	public void proxies_use_identity_equality() throws SQLException {
+		Statement ms = mock(Statement.class);
+		Statement s1 = StatementHandler.wrap(ms, connection, holder);
+		Statement s2 = StatementHandler.wrap(ms, connection, holder);
+		assertEquals(s1, s1);
+		assertFalse(s1.equals(s2));
+		assertEquals(System.identityHashCode(s1), s1.hashCode());
+	}
+	
+	@Test
+	public void the_result_set_returns_the_statement_proxy() throws SQLException {
+		Statement ms = mock(Statement.class);
+		ResultSet mrs = mock(ResultSet.class);
+		when(ms.executeQuery("SELECT 1")).thenReturn(mrs);
+		Statement s = StatementHandler.wrap(ms, connection, holder);
+		ResultSet rs = s.executeQuery("SELECT 1");
+		assertSame(s, rs.getStatement());
+		rs.next();
+		verify(mrs).next();
+	}
+	
+	@Test
+	public void getting_warnings_from_a_statement_or_a_result_set_marks_the_holder() throws SQLException {
+		Statement ms = mock(Statement.class);
+		ResultSet mrs = mock(ResultSet.class);
+		when(ms.executeQuery("SELECT 1")).thenReturn(mrs);
+		when(mrs.getWarnings()).thenReturn(new SQLWarning());
+		Statement s = StatementHandler.wrap(ms, connection, holder);
+		s.getWarnings();
+		assertFalse(holder.hasWarnings());
+		
+		s.executeQuery("SELECT 1").getWarnings();
+		assertTrue(holder.hasWarnings());
+		holder.setWarnings(false);
+		when(ms.getWarnings()).thenReturn(new SQLWarning());
+		s.getWarnings();
+		assertTrue(holder.hasWarnings());
+	}
+	
+	@Test
+	public void a_closed_statement_cannot_be_used() throws SQLException {
+		Statement ms = mock(Statement.class);
+		Statement s = StatementHandler.wrap(ms, connection, holder);
+		s.close();
+		s.close();
+		assertTrue(s.isClosed());
+		try {
+			s.execute("SELECT 1");
+			fail("Expected SQLException");
+		} catch (SQLException expected) { }
+		verify(ms, times(1)).close();
+	}
+	
+	@Test
+	public void the_statements_left_open_get_closed_in_bulk() throws SQLException {
+		Statement ms1 = mock(Statement.class);
+		Statement ms2 = mock(Statement.class);
+		Statement ms3 = mock(Statement.class);
+		StatementHandler.wrap(ms1, connection, holder);
+		StatementHandler.wrap(ms2, connection, holder).close();
+		StatementHandler.wrap(ms3, connection, holder);
+		
+		assertEquals(2, holder.getOpenStatements().size());
+		assertEquals(2, holder.getOpenStatements().closeAll());
+		assertEquals(0, holder.getOpenStatements().size());
+		verify(ms1).close();
+		verify(ms2).close();
+		verify(ms3).close();
+	}
+	
+	@Test
+	public void commit_and_rollback_end_the_transaction() throws SQLException {
+		holder.transactionStarted();
+		connection.commit();
+		assertFalse(holder.isTransactionActive());
+		holder.transactionStarted();
+		connection.rollback();
+		assertFalse(holder.isTransactionActive());
+	}
+	
+	@Test
+	public void after_unwrap_the_state_of_the_connection_is_unknown() throws SQLException {
+		connection.setAutoCommit(false);
+		connection.setReadOnly(true);
+		connection.unwrap(Connection.class);
+		connection.commit();
+		assertNull(holder.isTransactionActive());
+		assertNull(holder.getAutoCommit());
+		assertNull(holder.getReadOnly());
+	}
+	
+	@Test
+	public void after_unwrapping_a_statement_the_state_of_the_connection_is_unknown() throws SQLException {
+		Statement ms = mock(Statement.class);
+		when(ms.unwrap(Statement.class)).thenReturn(ms);
+		Statement s = StatementHandler.wrap(ms, connection, holder);
+		connection.setAutoCommit(false);
+		assertSame(ms, s.unwrap(Statement.class));
+		assertNull(holder.isTransactionActive());
+		assertNull(holder.getAutoCommit());
+	}
+	
+	@Test
+	public void after_unwrapping_a_result_set_the_state_of_the_connection_is_unknown() throws SQLException {
+		Statement ms = mock(Statement.class);
+		ResultSet mrs = mock(ResultSet.class);
+		when(ms.getResultSet()).thenReturn(mrs);
+		Statement s = StatementHandler.wrap(ms, connection, holder);
+		ResultSet rs = s.getResultSet();
+		assertFalse(holder.isTransactionActive());
+		rs.unwrap(ResultSet.class);
+		verify(mrs).unwrap(ResultSet.class);
+		assertNull(holder.isTransactionActive());
+	}
+}
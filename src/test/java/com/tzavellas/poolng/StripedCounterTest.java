@@ -0,0 +1,48 @@
+package com.tzavellas.poolng;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class StripedCounterTest {
+	
+	StripedCounter counter = new StripedCounter();
+	
+	@Test
+	public void the_number_of_stripes_is_a_power_of_two() {
+		assertEquals(1, StripedCounter.stripes(0));
+		assertEquals(8, StripedCounter.stripes(8));
+		assertEquals(16, StripedCounter.stripes(9));
+		assertEquals(64, StripedCounter.stripes(1000));
+	}
+	
+	@Test
+	public void the_value_is_the_sum_of_the_updates() {
+		assertEquals(0, counter.get());
+		counter.increment();
+		counter.add(10);
+		counter.add(-3);
+		assertEquals(8, counter.get());
+	}
+	
+	@Test
+	public void no_updates_are_lost_under_contention() throws Exception {
+		final int threads = 8, iterations = 10000;
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++) {
+			new Thread(new Runnable() {
+				public void run() {
+					for (int j = 0; j < iterations; j++) {
+						counter.increment();
+					}
+					done.countDown();
+				}
+			}).start();
+		}
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		assertEquals(threads * iterations, counter.get());
+	}
+}
@@ -0,0 +1,73 @@
+package com.tzavellas.poolng;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ThreadAffineCacheTest {
+	
+	@Test
+	public void the_number_of_slots_is_a_power_of_two() {
+		assertEquals(1, new ThreadAffineCache(0).slotCount());
+		assertEquals(8, new ThreadAffineCache(8).slotCount());
+		assertEquals(16, new ThreadAffineCache(9).slotCount());
+	}
+	
+	@Test
+	public void a_thread_gets_back_the_holder_it_cached() {
+		ThreadAffineCache cache = new ThreadAffineCache(4);
+		ConnectionHolder ch = new ConnectionHolder(null);
+		assertTrue(cache.offer(ch));
+		assertFalse(cache.isEmpty());
+		assertSame(ch, cache.poll());
+		assertNull(cache.poll());
+		assertTrue(cache.isEmpty());
+	}
+	
+	@Test
+	public void an_occupied_slot_does_not_accept_another_holder() {
+		ThreadAffineCache cache = new ThreadAffineCache(4);
+		assertTrue(cache.offer(new ConnectionHolder(null)));
+		assertFalse(cache.offer(new ConnectionHolder(null)));
+	}
+	
+	@Test
+	public void other_threads_can_steal_a_cached_holder() throws InterruptedException {
+		final ThreadAffineCache cache = new ThreadAffineCache(4);
+		final ConnectionHolder ch = new ConnectionHolder(null);
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				cache.offer(ch);
+			}
+		});
+		t.start();
+		t.join();
+		assertSame(ch, cache.steal());
+		assertNull(cache.steal());
+	}
+	
+	@Test
+	public void the_cached_holders_can_be_listed_and_removed() {
+		ThreadAffineCache cache = new ThreadAffineCache(4);
+		ConnectionHolder ch = new ConnectionHolder(null);
+		cache.offer(ch);
+		List<ConnectionHolder> cached = new ArrayList<ConnectionHolder>();
+		cache.addTo(cached);
+		assertEquals(1, cached.size());
+		assertFalse(cache.isEmpty());
+		assertTrue(cache.remove(ch));
+		assertFalse(cache.remove(ch));
+		assertTrue(cache.isEmpty());
+	}
+	
+	@Test
+	public void a_holder_can_be_cached_in_any_empty_slot() {
+		ThreadAffineCache cache = new ThreadAffineCache(2);
+		assertTrue(cache.offerToAny(new ConnectionHolder(null)));
+		assertTrue(cache.offerToAny(new ConnectionHolder(null)));
+		assertFalse(cache.offerToAny(new ConnectionHolder(null)));
+	}
+}
@@ -55,11 +55,32 @@ public class JmxIntegrationTest {
 		cb.setPoolSize(1);
 		pb.loadConfigurationFromJmx();
 		
-		// 2 active connections, so the request to resize to 1 will resize to 2
-		assertEquals(2, getConfiguration().getPoolSize());
+		// the pool shrinks instantly, the extra connection gets retired when returned
+		assertEquals(1, getConfiguration().getPoolSize());
 
 	}
 	
+	@Test
+	public void pool_statistics_through_jmx() throws Exception {
+		Connection c1 = pool.borrowConnection();
+		Connection c2 = pool.borrowConnection();
+		c2.close();
+		
+		PoolStatisticsMBean stats = getStatistics();
+		assertEquals(1, stats.getActiveConnections());
+		assertEquals(1, stats.getIdleConnections());
+		assertEquals(2, stats.getTotalConnections());
+		assertEquals(2, stats.getMaxActiveConnections());
+		assertEquals(0, stats.getWaitingThreads());
+		assertEquals(config.getPoolSize() - 1, stats.getAvailablePermits());
+		assertTrue(stats.getMaxWaitTime() >= stats.getWaitTime50thPercentile());
+		stats.getCreationsPerSecond();
+		Connection c3 = pool.borrowConnection();
+		assertEquals(0.0, stats.getCreationsPerSecond(), 0);
+		c3.close();
+		c1.close();
+	}
+	
 	private ConfigurationMBean getConfiguration() throws JMException {
 		return JMX.newMBeanProxy(server, registrar.objectNameForConfig(pool), ConfigurationMBean.class);
 	}
@@ -67,4 +88,8 @@ public class JmxIntegrationTest {
 	private PoolManagementMBean getManagement() throws JMException {
 		return JMX.newMBeanProxy(server, registrar.objectNameForPool(pool), PoolManagementMBean.class);
 	}	
+	
+	private PoolStatisticsMBean getStatistics() throws JMException {
+		return JMX.newMBeanProxy(server, registrar.objectNameForStatistics(pool), PoolStatisticsMBean.class);
+	}
 }
@@ -30,6 +30,7 @@ public class JmxRegistrarTest {
 		
 		assertNotNull(mx);
 		assertNotNull(cx);
+		assertTrue(server.isRegistered(registrar.objectNameForStatistics(mp)));
 		
 		assertTrue(registrar.unregisterPool(mp));
 		assertFalse("Should return false since it is unregistered!", registrar.unregisterPool(mp));